@@ -1,6 +1,11 @@
 import java.io.IOException;
 
 import ai.geodata.GDAL2Thumbnail;
+import ai.geodata.HDFSClient;
+import ai.geodata.OverviewReader;
+import ai.geodata.RasterStatistics;
+import ai.geodata.common.BandStatistics;
+import ai.geodata.util.GDALRegistry;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -23,7 +28,7 @@ public class HDFSUpload {
     public static boolean createDir(String dst , Configuration conf){
         Path dstPath = new Path(dst) ;
         try{
-            FileSystem dhfs = FileSystem.get(conf);
+            FileSystem dhfs = HDFSClient.getInstance(conf).getFileSystem(dstPath);
             dhfs.mkdirs(dstPath);
         }
         catch(IOException ie){
@@ -44,7 +49,7 @@ public class HDFSUpload {
     public static boolean putToHDFS(String src , String dst , Configuration conf){
         Path dstPath = new Path(dst) ;
         try{
-            FileSystem hdfs = dstPath.getFileSystem(conf) ;
+            FileSystem hdfs = HDFSClient.getInstance(conf).getFileSystem(dstPath) ;
             hdfs.copyFromLocalFile(false, new Path(src), dstPath);
         }
         catch(IOException ie){
@@ -65,7 +70,7 @@ public class HDFSUpload {
     public static boolean getFromHDFS(String src , String dst , Configuration conf){
         Path dstPath = new Path(dst) ;
         try{
-            FileSystem dhfs = dstPath.getFileSystem(conf) ;
+            FileSystem dhfs = HDFSClient.getInstance(conf).getFileSystem(new Path(src)) ;
             dhfs.copyToLocalFile(false, new Path(src), dstPath) ;
         }catch(IOException ie){
             ie.printStackTrace();
@@ -85,7 +90,7 @@ public class HDFSUpload {
     public static boolean checkAndDel(final String path , Configuration conf){
         Path dstPath = new Path(path) ;
         try{
-            FileSystem dhfs = dstPath.getFileSystem(conf) ;
+            FileSystem dhfs = HDFSClient.getInstance(conf).getFileSystem(dstPath) ;
             if(dhfs.exists(dstPath)){
                 dhfs.delete(dstPath, true) ;
             }else{
@@ -99,7 +104,7 @@ public class HDFSUpload {
     }
 
     public static boolean createThumbnail(String input,String outputFileName, int bandID, float scale){
-        gdal.AllRegister();
+        GDALRegistry.register();
         Dataset hDataset = gdal.Open(input, gdalconstConstants.GA_ReadOnly);
         if (hDataset == null){
             System.err.println("GDALOpen failed - " + gdal.GetLastErrorNo());
@@ -115,24 +120,18 @@ public class HDFSUpload {
         int nCols = hDataset.getRasterXSize();
         int nRows = hDataset.getRasterYSize();
 
-        float minVal = 0, maxVal = 0;
-        float buffer[] = new float[nCols];
-        Band band = hDataset.GetRasterBand(bandID);
-        for (int i=0; i<nRows; i++){
-            if(band.ReadRaster(0, i, nCols, 1, buffer) !=
-                    gdalconstConstants.CE_None){
-                System.err.println("Fail to read image.");
-                return false;
-            }
-            for(int j=0; j<nCols; j++){
-                if((i==0) && (j==0))
-                    maxVal = minVal = buffer[0];
-                if (buffer[j] < minVal)
-                    minVal = buffer[j];
-                if (buffer[j] > maxVal)
-                    maxVal = buffer[j];
-            }
+        int stepSize = (int) (1.0 / scale);
+        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
+        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
+
+        BandStatistics[] stats = new RasterStatistics().setApproxOK(true, dstCols, dstRows)
+                .compute(hDataset, new int[]{bandID});
+        if (stats == null){
+            System.err.println("Fail to read image.");
+            return false;
         }
+        float minVal = (float) stats[0].getMin(), maxVal = (float) stats[0].getMax();
+        float buffer[] = new float[dstCols * dstRows];
 
         Driver driver = gdal.GetDriverByName("BMP");
         if (driver == null){
@@ -140,10 +139,6 @@ public class HDFSUpload {
             return false;
         }
 
-        int stepSize = (int) (1.0 / scale);
-        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
-        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
-
         String bmpFileName = outputFileName + ".bmp";
         Dataset bmpDataset = driver.Create(bmpFileName, dstCols, dstRows, 1,
                 gdalconstConstants.GDT_Byte);
@@ -151,25 +146,19 @@ public class HDFSUpload {
             System.err.println("Fail to create png image driver");
             return false;
         }
-        byte dstBuffer[] = new byte[ dstCols ];//输出缓存
+        byte dstBuffer[] = new byte[ dstCols * dstRows ];//输出缓存
 
         Band bandWrite = bmpDataset.GetRasterBand(1);
         Band bandRead = hDataset.GetRasterBand(bandID);
-        int offset, offsetY = 0;
-        for (int i=0; i<nRows; i += stepSize){
-            if(bandRead.ReadRaster(0, i, nCols, 1, buffer) !=
-                    gdalconstConstants.CE_None){
-                System.err.println("Fail to read image.");
-                return false;
-            }
-            offset = 0;
-            for(int j=0; j<nCols; j+=stepSize){
-                dstBuffer[offset] = (byte) ((buffer[j] - minVal) * 256 / (maxVal - minVal + 1));
-                offset++;
-            }
-            bandWrite.WriteRaster(0, offsetY, dstCols, 1, dstBuffer);
-            offsetY++;
+        if (!OverviewReader.read(bandRead, dstCols, dstRows, buffer, "average")){
+            System.err.println("Fail to read image.");
+            return false;
+        }
+        for (int i=0; i<buffer.length; i++){
+            float val = Math.min(Math.max(buffer[i], minVal), maxVal);
+            dstBuffer[i] = (byte) ((val - minVal) * 256 / (maxVal - minVal + 1));
         }
+        bandWrite.WriteRaster(0, 0, dstCols, dstRows, dstBuffer);
 
         Driver jpegDriver = gdal.GetDriverByName("JPEG");
         if (jpegDriver == null){
@@ -187,7 +176,7 @@ public class HDFSUpload {
 
     public static boolean createThumbnail(String input,String output, int redBand, int greenBand,
                                           int blueBand, float scale){
-        gdal.AllRegister();
+        GDALRegistry.register();
         Dataset hDataset = gdal.Open(input, gdalconstConstants.GA_ReadOnly);
         if (hDataset == null)
         {
@@ -205,27 +194,17 @@ public class HDFSUpload {
         int nCols = hDataset.getRasterXSize();
         int nRows = hDataset.getRasterYSize();
 
-        float minVal[] = new float[3];
-        float maxVal[] = new float[3];
-        float buffer[] = new float[nCols];
-        for (int k=0; k<3; k++){
-            Band band = hDataset.GetRasterBand(rgbBand[k]);
-            for (int i=0; i<nRows; i++){
-                if(band.ReadRaster(0, i, nCols, 1, buffer) !=
-                        gdalconstConstants.CE_None){
-                    System.err.println("Fail to read image.");
-                    return false;
-                }
-                for(int j=0; j<nCols; j++){
-                    if((i==0) && (j==0))
-                        maxVal[k] = minVal[k] = buffer[0];
-                    if (buffer[j] < minVal[k])
-                        minVal[k] = buffer[j];
-                    if (buffer[j] > maxVal[k])
-                        maxVal[k] = buffer[j];
-                }
-            }
+        int stepSize = (int) (1.0 / scale);
+        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
+        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
+
+        BandStatistics[] stats = new RasterStatistics().setApproxOK(true, dstCols, dstRows)
+                .compute(hDataset, rgbBand);
+        if (stats == null){
+            System.err.println("Fail to read image.");
+            return false;
         }
+        float buffer[] = new float[dstCols * dstRows];
 
         Driver driver = gdal.GetDriverByName("BMP");
         if (driver == null){
@@ -233,36 +212,27 @@ public class HDFSUpload {
             return false;
         }
 
-        int stepSize = (int) (1.0 / scale);
-        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
-        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
-
         Dataset dstDataset = driver.Create(output, dstCols, dstRows, 3,
                 gdalconstConstants.GDT_Byte);
         if (dstDataset == null){
             System.err.println("Fail to create png image driver");
             return false;
         }
-        byte dstBuffer[] = new byte[ dstCols ];//输出缓存
+        byte dstBuffer[] = new byte[ dstCols * dstRows ];//输出缓存
 
         for (int k=0; k<3; k++){
             Band bandWrite = dstDataset.GetRasterBand(k+1);
             Band bandRead = hDataset.GetRasterBand(rgbBand[k]);
-            int offset, offsetY = 0;
-            for (int i=0; i<nRows; i += stepSize){
-                if(bandRead.ReadRaster(0, i, nCols, 1, buffer) !=
-                        gdalconstConstants.CE_None){
-                    System.err.println("Fail to read image.");
-                    return false;
-                }
-                offset = 0;
-                for(int j=0; j<nCols; j+=stepSize){
-                    dstBuffer[offset] = (byte) ((buffer[j] - minVal[k]) * 256 / (maxVal[k] - minVal[k] + 1));
-                    offset++;
-                }
-                bandWrite.WriteRaster(0, offsetY, dstCols, 1, dstBuffer);
-                offsetY++;
+            if (!OverviewReader.read(bandRead, dstCols, dstRows, buffer, "average")){
+                System.err.println("Fail to read image.");
+                return false;
+            }
+            float minVal = (float) stats[k].getMin(), maxVal = (float) stats[k].getMax();
+            for (int i=0; i<buffer.length; i++){
+                float val = Math.min(Math.max(buffer[i], minVal), maxVal);
+                dstBuffer[i] = (byte) ((val - minVal) * 256 / (maxVal - minVal + 1));
             }
+            bandWrite.WriteRaster(0, 0, dstCols, dstRows, dstBuffer);
         }
 
         hDataset.delete();
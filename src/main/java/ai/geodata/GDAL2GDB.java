@@ -5,16 +5,24 @@
  */
 package ai.geodata;
 
+import ai.geodata.common.BoundingBox;
+import ai.geodata.common.FootprintIndex;
+import ai.geodata.common.FootprintRecord;
 import ai.geodata.conf.Configuration;
 import org.gdal.ogr.*;
 import org.gdal.gdal.gdal;
 import org.apache.log4j.Logger;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GDAL2GDB {
     protected Logger log = Logger.getLogger(GDAL2GDB.class);
@@ -26,70 +34,492 @@ public class GDAL2GDB {
     //读取GDB时返回的属性信息Map对应的Key
     public static String[] KEYS = {"imageFilesPath", "boundaryJson", "boundarySql"};
 
+    //流式读取时是否附带GDAL导出的JSON和WKB
+    private boolean includeJson = false;
+    private boolean includeWkb = false;
+    //下推到图层的属性过滤(OGR SQL的WHERE子句)和空间过滤，为null时不过滤
+    private String attributeFilter;
+    private BoundingBox spatialFilter;
+
     public GDAL2GDB(){
         fieldImagePath = conf.get("fieldImagePath");
         ogr.RegisterAll();
     }
 
+    /**
+     * 逐个要素访问GDB，访问完即释放
+     */
+    public interface FeatureVisitor {
+        /**
+         * @param record 要素，访问结束后不再被读取器引用
+         * @return false时停止读取
+         */
+        boolean visit(FootprintRecord record);
+    }
+
+    /**
+     * @param includeJson 读取时是否保存GDAL导出的每个多边形的JSON
+     */
+    public void setIncludeJson(boolean includeJson){
+        this.includeJson = includeJson;
+    }
+
+    /**
+     * @param includeWkb 读取时是否保存整个几何的WKB
+     */
+    public void setIncludeWkb(boolean includeWkb){
+        this.includeWkb = includeWkb;
+    }
+
+    /**
+     * @param attributeFilter OGR SQL的WHERE子句，如"year = 2017"，为null时不过滤
+     */
+    public void setAttributeFilter(String attributeFilter){
+        this.attributeFilter = attributeFilter;
+    }
+
+    /**
+     * @param spatialFilter 只读取外包矩形与其相交的要素，为null时不过滤
+     */
+    public void setSpatialFilter(BoundingBox spatialFilter){
+        this.spatialFilter = spatialFilter;
+    }
+
     /**
      * 读取GDB文件，并返回对应的多个影像地址和边界信息。
      * @param gdbPath
      * @return
      */
     public Map<String, List<String>> readGDB(String gdbPath){
+        final List<String> imageFilesPath = new ArrayList<String>();
+        final List<String> boundaryJson = new ArrayList<String>();
+        final List<String> boundarySql = new ArrayList<String>();
+        boolean oldIncludeJson = includeJson;
+        includeJson = true;
+        try {
+            boolean success = readGDB(gdbPath, new FeatureVisitor() {
+                @Override
+                public boolean visit(FootprintRecord record) {
+                    imageFilesPath.add(record.getPath());
+                    for (int part = 0; part < record.getPartCount(); part++) {
+                        boundaryJson.add(record.getJson(part));
+                        boundarySql.add(record.toSql(part));
+                    }
+                    return true;
+                }
+            });
+            if (!success)
+                return null;
+        } finally {
+            includeJson = oldIncludeJson;
+        }
+        Map<String, List<String>> resultMap = new HashMap<String, List<String>>();
+        resultMap.put(KEYS[0], imageFilesPath);
+        resultMap.put(KEYS[1], boundaryJson);
+        resultMap.put(KEYS[2], boundarySql);
+
+        return resultMap;
+    }
+
+    /**
+     * 流式读取GDB，每个要素转为FootprintRecord交给visitor，不在内存中保留整个目录
+     * @param gdbPath GDB路径
+     * @param visitor 要素访问者
+     * @return 是否读取成功(visitor提前停止也视为成功)
+     */
+    public boolean readGDB(String gdbPath, FeatureVisitor visitor){
+        DataSource gdb = openGDB(gdbPath);
+        if (gdb == null)
+            return false;
+        try {
+            for (int iLayer=0; iLayer< gdb.GetLayerCount(); iLayer++) {
+                Layer featsClass = gdb.GetLayerByIndex(iLayer);
+                if (featsClass.GetLayerDefn().GetFieldIndex(fieldImagePath) < 0){
+                    log.error(fieldImagePath + " 属性缺失.");
+                    return false;
+                }
+                if (!applyFilters(featsClass))
+                    return false;
+                if (!readLayer(featsClass, visitor))
+                    break;
+            }
+            return true;
+        } finally {
+            gdb.delete();
+        }
+    }
+
+    private DataSource openGDB(String gdbPath){
         if (!(new File(gdbPath)).exists()){
             log.error("GDB文件不存在:" + gdbPath);
             return null;
         }
         Driver driver = ogr.GetDriverByName("OpenFileGDB");
-        DataSource gdb;
-        try{
-            gdb = driver.Open(gdbPath);
-        }catch (Exception e){
-            log.error(e.getMessage(), e);
+        DataSource gdb = driver == null ? null : driver.Open(gdbPath);
+        if (gdb == null){
             log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
             log.error("缺少OpenFileGDB驱动或文件不存在.");
+        }
+        return gdb;
+    }
+
+    /**
+     * @return visitor要求停止时返回false
+     */
+    private boolean readLayer(Layer featsClass, FeatureVisitor visitor){
+        String layerName = featsClass.GetName();
+        Feature feature;
+        while((feature = featsClass.GetNextFeature()) != null){
+            try {
+                if (!visitor.visit(toRecord(layerName, feature)))
+                    return false;
+            } finally {
+                feature.delete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把过滤条件交给OGR，不符合的要素不会被读出
+     * @return 属性过滤语句无效时返回false
+     */
+    private boolean applyFilters(Layer featsClass){
+        if (attributeFilter != null && featsClass.SetAttributeFilter(attributeFilter) != ogrConstants.OGRERR_NONE){
+            log.error("属性过滤无效: " + attributeFilter + ", 图层" + featsClass.GetName());
+            return false;
+        }
+        if (spatialFilter != null)
+            featsClass.SetSpatialFilterRect(spatialFilter.getMinimumX(), spatialFilter.getMinimumY(),
+                    spatialFilter.getMaximumX(), spatialFilter.getMaximumY());
+        return true;
+    }
+
+    /**
+     * 多线程读取GDB的所有图层，每个线程打开自己的DataSource，从共享的序号中依次领取图层。
+     * 缺少影像路径属性或读取出错的图层记录在报告中，不影响其他图层。
+     * @param gdbPath GDB路径
+     * @param threads 线程数
+     * @return 按图层顺序合并的要素及每个图层的结果，GDB无法打开时返回null
+     */
+    public ScanReport scanGDB(final String gdbPath, int threads){
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        DataSource gdb = openGDB(gdbPath);
+        if (gdb == null)
             return null;
+        final int layerCount = gdb.GetLayerCount();
+        gdb.delete();
+
+        long start = System.nanoTime();
+        final LayerResult[] results = new LayerResult[layerCount];
+        final List<List<FootprintRecord>> records = new ArrayList<List<FootprintRecord>>(layerCount);
+        for (int i = 0; i < layerCount; i++)
+            records.add(null);
+        final AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(threads, layerCount));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int w = 0; w < workers; w++) {
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scanLayers(gdbPath, next, layerCount, results, records);
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("读取GDB被中断.");
+                pool.shutdownNow();
+                break;
+            } catch (ExecutionException e) {
+                log.error(e.getCause().getMessage(), e.getCause());
+            }
         }
 
-        List<String> imageFilesPath = new LinkedList<String>();
-        List<String> boundaryJson = new LinkedList<String>();
-        List<String> boundarySql = new LinkedList<String>();
-        for (int iLayer=0; iLayer< gdb.GetLayerCount(); iLayer++) {
-            Layer featsClass = gdb.GetLayerByIndex(iLayer);
-            FeatureDefn layerDefinition = featsClass.GetLayerDefn();
+        List<LayerResult> layers = new ArrayList<LayerResult>(layerCount);
+        List<FootprintRecord> catalog = new ArrayList<FootprintRecord>();
+        for (int i = 0; i < layerCount; i++) {
+            if (results[i] == null)
+                results[i] = new LayerResult(i, null, false, 0, 0, "未读取");
+            layers.add(results[i]);
+            if (records.get(i) != null)
+                catalog.addAll(records.get(i));
+        }
+        ScanReport report = new ScanReport(catalog, layers, (System.nanoTime() - start) / 1000000);
+        log.info(report);
+        return report;
+    }
 
-            if (layerDefinition.GetFieldIndex(fieldImagePath) < 0){
-                log.error(fieldImagePath + " 属性缺失.");
-                return null;
+    /**
+     * 一个工作线程：打开自己的DataSource，依次领取图层直到全部领完
+     */
+    private void scanLayers(String gdbPath, AtomicInteger next, int layerCount, LayerResult[] results,
+                            List<List<FootprintRecord>> records){
+        DataSource gdb = openGDB(gdbPath);
+        try {
+            int index;
+            while ((index = next.getAndIncrement()) < layerCount) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                if (gdb == null) {
+                    results[index] = new LayerResult(index, null, false, 0, 0, "无法打开GDB");
+                    continue;
+                }
+                results[index] = scanLayer(gdb, index, records);
+                if (results[index].isSuccess())
+                    log.debug(results[index]);
+                else
+                    log.error(results[index]);
+            }
+        } finally {
+            if (gdb != null)
+                gdb.delete();
+        }
+    }
+
+    private LayerResult scanLayer(DataSource gdb, int index, List<List<FootprintRecord>> records){
+        long start = System.nanoTime();
+        String name = null;
+        try {
+            Layer featsClass = gdb.GetLayerByIndex(index);
+            name = featsClass.GetName();
+            if (featsClass.GetLayerDefn().GetFieldIndex(fieldImagePath) < 0)
+                return new LayerResult(index, name, false, 0, (System.nanoTime() - start) / 1000000,
+                        fieldImagePath + " 属性缺失");
+            if (!applyFilters(featsClass))
+                return new LayerResult(index, name, false, 0, (System.nanoTime() - start) / 1000000,
+                        "属性过滤无效: " + attributeFilter);
+            final List<FootprintRecord> layerRecords = new ArrayList<FootprintRecord>();
+            readLayer(featsClass, new FeatureVisitor() {
+                @Override
+                public boolean visit(FootprintRecord record) {
+                    layerRecords.add(record);
+                    return true;
+                }
+            });
+            synchronized (records) {
+                records.set(index, layerRecords);
             }
+            return new LayerResult(index, name, true, layerRecords.size(), (System.nanoTime() - start) / 1000000, null);
+        } catch (RuntimeException e) {
+            return new LayerResult(index, name, false, 0, (System.nanoTime() - start) / 1000000, String.valueOf(e));
+        }
+    }
 
-            Feature feature;
-            while((feature = featsClass.GetNextFeature()) != null){
-                imageFilesPath.add(feature.GetFieldAsString(fieldImagePath));
+    /**
+     * 把要素的几何拆成多边形、环和点，坐标放进一个double数组
+     */
+    private FootprintRecord toRecord(String layerName, Feature feature){
+        String path = feature.GetFieldAsString(fieldImagePath);
+        Geometry geom = feature.GetGeometryRef();
+        if (geom == null)
+            return new FootprintRecord(layerName, feature.GetFID(), path, null, new double[0],
+                    new int[]{0}, new int[]{0}, null, null);
 
-                Geometry geom = feature.GetGeometryRef();
-                for (int igeo = 0; igeo < geom.GetGeometryCount(); igeo++) {
-                    Geometry geomi = geom.GetGeometryRef(igeo);
-                    boundaryJson.add(geomi.ExportToJson());
+        double[] envelope = new double[4];
+        geom.GetEnvelope(envelope);
+        //OGR的外包矩形顺序为minX, maxX, minY, maxY
+        BoundingBox bbox = new BoundingBox(envelope[0], envelope[2], envelope[1], envelope[3]);
 
-                    String pairPoint = "(";
-                    Geometry geomj = geomi.GetGeometryRef(0);
-                    for (int ipt = 0; ipt < geomj.GetPointCount() - 1; ipt++){
-                        double[] pt= geomj.GetPoint_2D(ipt);
-                        pairPoint += String.format("(%f, %f)", pt[0], pt[1]) + ", ";
-                    }
-                    pairPoint = pairPoint.substring(0, pairPoint.length() - 2) + ")";
-                    boundarySql.add(pairPoint);
+        List<Geometry> parts = new ArrayList<Geometry>();
+        int type = ogr.GT_Flatten(geom.GetGeometryType());
+        if (type == ogrConstants.wkbPolygon){
+            parts.add(geom);
+        }else if (type == ogrConstants.wkbMultiPolygon){
+            for (int igeo = 0; igeo < geom.GetGeometryCount(); igeo++)
+                parts.add(geom.GetGeometryRef(igeo));
+        }
+
+        int rings = 0, points = 0;
+        for (Geometry part : parts){
+            rings += part.GetGeometryCount();
+            for (int iring = 0; iring < part.GetGeometryCount(); iring++)
+                points += part.GetGeometryRef(iring).GetPointCount();
+        }
+        double[] coordinates = new double[points * 2];
+        int[] ringStarts = new int[rings + 1];
+        int[] partStarts = new int[parts.size() + 1];
+        String[] json = includeJson ? new String[parts.size()] : null;
+        int ring = 0, point = 0;
+        for (int ipart = 0; ipart < parts.size(); ipart++){
+            Geometry part = parts.get(ipart);
+            partStarts[ipart] = ring;
+            if (json != null)
+                json[ipart] = part.ExportToJson();
+            for (int iring = 0; iring < part.GetGeometryCount(); iring++){
+                ringStarts[ring++] = point;
+                for (double[] pt : part.GetGeometryRef(iring).GetPoints(2)){
+                    coordinates[point * 2] = pt[0];
+                    coordinates[point * 2 + 1] = pt[1];
+                    point++;
                 }
             }
         }
-        Map<String, List<String>> resultMap = new HashMap<String, List<String>>();
-        resultMap.put(KEYS[0], imageFilesPath);
-        resultMap.put(KEYS[1], boundaryJson);
-        resultMap.put(KEYS[2], boundarySql);
+        ringStarts[rings] = point;
+        partStarts[parts.size()] = rings;
+        return new FootprintRecord(layerName, feature.GetFID(), path, bbox, coordinates, ringStarts, partStarts,
+                json, includeWkb ? geom.ExportToWkb() : null);
+    }
 
-        return resultMap;
+    /**
+     * 读取GDB中每个影像的路径和外包矩形，构建空间索引
+     * @param gdbPath GDB路径
+     * @return 空间索引，失败时返回null
+     */
+    public FootprintIndex buildIndex(String gdbPath){
+        final List<String> paths = new ArrayList<String>();
+        final List<BoundingBox> footprints = new ArrayList<BoundingBox>();
+        boolean success = readGDB(gdbPath, new FeatureVisitor() {
+            @Override
+            public boolean visit(FootprintRecord record) {
+                if (record.getEnvelope() != null){
+                    paths.add(record.getPath());
+                    footprints.add(record.getEnvelope());
+                }
+                return true;
+            }
+        });
+        if (!success)
+            return null;
+        log.info("空间索引构建完成, " + paths.size() + "个影像.");
+        return FootprintIndex.build(paths, footprints);
+    }
+
+    /**
+     * 优先读取已保存的空间索引，索引不存在或比GDB旧时重新构建并保存
+     * @param gdbPath GDB路径
+     * @param indexFile 索引文件
+     * @return 空间索引，失败时返回null
+     */
+    public FootprintIndex loadIndex(String gdbPath, File indexFile){
+        if (indexFile.isFile() && indexFile.lastModified() >= lastModified(new File(gdbPath))){
+            FootprintIndex index = FootprintIndex.load(indexFile);
+            if (index != null)
+                return index;
+        }
+        FootprintIndex index = buildIndex(gdbPath);
+        if (index != null)
+            index.save(indexFile);
+        return index;
+    }
+
+    /**
+     * GDB是目录，取其中文件的最晚修改时间
+     */
+    private static long lastModified(File file){
+        long modified = file.lastModified();
+        File[] children = file.listFiles();
+        if (children != null){
+            for (File child : children)
+                modified = Math.max(modified, lastModified(child));
+        }
+        return modified;
+    }
+
+    /**
+     * 单个图层的读取结果
+     */
+    public static class LayerResult {
+        private final int index;
+        private final String name;
+        private final boolean success;
+        private final int featureCount;
+        private final long millis;
+        private final String error;
+
+        public LayerResult(int index, String name, boolean success, int featureCount, long millis, String error) {
+            this.index = index;
+            this.name = name;
+            this.success = success;
+            this.featureCount = featureCount;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return 通过过滤的要素数
+         */
+        public int getFeatureCount() {
+            return featureCount;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "图层" + index + "(" + name + ")" + (success ? " 成功" : " 失败: " + error)
+                    + ", " + featureCount + "个要素, " + millis + "ms";
+        }
+    }
+
+    /**
+     * 多图层读取的汇总
+     */
+    public static class ScanReport {
+        private final List<FootprintRecord> records;
+        private final List<LayerResult> layers;
+        private final long elapsedMillis;
+
+        public ScanReport(List<FootprintRecord> records, List<LayerResult> layers, long elapsedMillis) {
+            this.records = records;
+            this.layers = layers;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return 所有成功图层的要素，按图层顺序合并
+         */
+        public List<FootprintRecord> getRecords() {
+            return records;
+        }
+
+        public List<LayerResult> getLayers() {
+            return layers;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public List<LayerResult> getFailed() {
+            List<LayerResult> failed = new ArrayList<LayerResult>();
+            for (LayerResult layer : layers) {
+                if (!layer.isSuccess()) {
+                    failed.add(layer);
+                }
+            }
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "读取图层" + (layers.size() - getFailed().size()) + "/" + layers.size() + "个, "
+                    + records.size() + "个要素, 耗时" + elapsedMillis + "ms";
+        }
     }
 
     public static void main(String[] args){
@@ -6,37 +6,55 @@
 
 package ai.geodata;
 
+import ai.geodata.common.BandStatistics;
+import ai.geodata.common.ImageEncoder;
+import ai.geodata.util.GDALRegistry;
+import ai.geodata.util.HDFSRasterCache;
 import org.apache.log4j.Logger;
 import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
-import org.gdal.gdal.Driver;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
-import java.util.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class GDAL2Thumbnail {
     protected Logger log = Logger.getLogger(GDAL2Thumbnail.class);
 
     private static int TRANSPARE_COLOR = -256*256*256;
 
+    //百分比拉伸，小于0时使用最小最大值拉伸
+    private double lowPercent = -1;
+    private double highPercent = -1;
+    //降采样读取时的重采样方法，取值见ContentValue.resamplingList
+    private String resampling = "average";
+
+    //最近一次生成缩略图时读取的像元数据量(字节)
+    private long bytesRead = 0;
+
     public GDAL2Thumbnail(){
-        gdal.AllRegister();
+        GDALRegistry.register();
     }
 
     /**
      * 根据影像和目标缩略图大小，计算要缩放的尺度
-     * @param inputFileName 输入影像路径
+     * @param inputFileName 输入影像路径，可以是hdfs://路径
      * @param size 生成影像的长和宽的最大值
      * @return
      */
     public double getScale(String inputFileName, int size){
-        Dataset inDataset = gdal.Open(inputFileName, gdalconstConstants.GA_ReadOnly);
+        HDFSRasterCache cache = openCache(inputFileName);
+        if (HDFSRasterCache.isRemote(inputFileName) && cache == null){
+            return -1.0;
+        }
+        Dataset inDataset = gdal.Open(cache == null ? inputFileName : cache.getLocalPath(),
+                gdalconstConstants.GA_ReadOnly);
+        if (cache != null)
+            cache.close();
         if (inDataset == null) {
             log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
             log.error(gdal.GetLastErrorMsg());
@@ -45,6 +63,7 @@ public class GDAL2Thumbnail {
 
         double nCols = inDataset.getRasterXSize();
         double nRows = inDataset.getRasterYSize();
+        inDataset.delete();
 
         return Math.min(size/nCols, size/nRows);
     }
@@ -78,32 +97,65 @@ public class GDAL2Thumbnail {
         return createThumbnail(inputFileName, outputFileName, bands, scale);
     }
 
-    private String getImageTypeGDAL(String inputFileName){
-        inputFileName = inputFileName.toLowerCase();
-        if (inputFileName.endsWith(".bmp")){
-            return "BMP";
-        }else if (inputFileName.endsWith(".jpg")){
-            return "JPEG";
-        }else if (inputFileName.endsWith(".png")){
-            return "PNG";
-        }else if (inputFileName.endsWith(".gif")){
-            return "GIF";
+    /**
+     * 设置百分比拉伸，例如(2, 98)表示截去两端各2%的像元
+     * @param low 下限百分比
+     * @param high 上限百分比
+     */
+    public void setPercentStretch(double low, double high){
+        if (low < 0 || high > 100 || low >= high){
+            throw new IllegalArgumentException("Percentiles must satisfy 0 <= low < high <= 100");
         }
-        return null;
+        this.lowPercent = low;
+        this.highPercent = high;
+    }
+
+    /**
+     * 设置降采样读取时的重采样方法
+     * @param resampling ContentValue.resamplingList中的一项，默认average
+     */
+    public void setResampling(String resampling){
+        if (OverviewReader.toGDALResampling(resampling) == null){
+            throw new IllegalArgumentException("Unsupported resampling method: " + resampling);
+        }
+        this.resampling = resampling;
+    }
+
+    /**
+     * @return 最近一次生成缩略图时从影像(或金字塔)读取的像元数据量，单位字节
+     */
+    public long getBytesRead(){
+        return bytesRead;
     }
 
     private boolean createThumbnail(String inputFileName,String outputFileName, int [] bands, double scale){
+        bytesRead = 0;
+        HDFSRasterCache cache = openCache(inputFileName);
+        if (HDFSRasterCache.isRemote(inputFileName) && cache == null){
+            return false;
+        }
+        try {
+            return createThumbnail(inputFileName, cache, outputFileName, bands, scale);
+        } finally {
+            if (cache != null)
+                cache.close();
+        }
+    }
+
+    private boolean createThumbnail(String inputFileName, HDFSRasterCache cache, String outputFileName,
+                                    int [] bands, double scale){
         if (bands.length != 1 && bands.length != 3){
             log.error("Parameter bands must have 1 or 3 elements.");
             return false;
         }
-        String gType = getImageTypeGDAL(outputFileName);
-        if(gType == null){
+        String format = ImageEncoder.formatOf(outputFileName);
+        if(format == null){
             log.error("GDAL2Thumbnail only support format of bmp, jpg, png or gif.");
             return false;
         }
 
-        Dataset inDataset = gdal.Open(inputFileName, gdalconstConstants.GA_ReadOnly);
+        Dataset inDataset = gdal.Open(cache == null ? inputFileName : cache.getLocalPath(),
+                gdalconstConstants.GA_ReadOnly);
         if (inDataset == null) {
             log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
             log.error(gdal.GetLastErrorMsg());
@@ -118,138 +170,162 @@ public class GDAL2Thumbnail {
         int nCols = inDataset.getRasterXSize();
         int nRows = inDataset.getRasterYSize();
 
-        float minVal[] = new float[3];
-        float maxVal[] = new float[3];
-        float buffer[] = new float[nCols];
-        for (int k=0; k<bands.length; k++){
-            Band band = inDataset.GetRasterBand(bands[k]);
-            Double nodata [] = new Double[1];
-            for (int i=0; i<nRows; i++){
-                if(band.ReadRaster(0, i, nCols, 1, buffer) !=
-                        gdalconstConstants.CE_None){
-                    log.error("影像数据的读取失败.");
-                    return false;
+        int stepSize = (int) (1.0 / scale);
+        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
+        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
+        //HDFS上的影像只下载统计和缩略图实际读取的金字塔层(含掩膜)的数据块
+        if (cache != null){
+            for (int k=0; k<bands.length; k++){
+                Band bandRead = inDataset.GetRasterBand(bands[k]);
+                if (bandRead == null)
+                    continue;
+                Band source = OverviewReader.selectOverview(bandRead, dstCols, dstRows);
+                boolean fetched = cache.fetchLevel(source.getXSize(), source.getYSize());
+                //alpha波段或独立掩膜按其自身的金字塔读取
+                int flags = bandRead.GetMaskFlags();
+                if (fetched && (flags & (gdalconstConstants.GMF_ALL_VALID | gdalconstConstants.GMF_NODATA)) == 0){
+                    Band maskSource = OverviewReader.selectOverview(bandRead.GetMaskBand(), dstCols, dstRows);
+                    fetched = cache.fetchLevel(maskSource.getXSize(), maskSource.getYSize());
                 }
-                for(int j=0; j<nCols; j++){
-                    if((i==0) && (j==0))
-                        maxVal[k] = minVal[k] = buffer[0];
-                    if (buffer[j] < minVal[k])
-                        minVal[k] = buffer[j];
-                    if (buffer[j] > maxVal[k])
-                        maxVal[k] = buffer[j];
+                if (!fetched){
+                    inDataset.delete();
+                    return false;
                 }
             }
         }
 
-        Driver driver = gdal.GetDriverByName("BMP");
-        if (driver == null){
-            log.error("Fail to create bmp image driver");
-            return false;
-        }
-
-        int stepSize = (int) (1.0 / scale);
-        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0:1);
-        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0:1 );
-
-        String bmpFileName = outputFileName;
-        if (!gType.equals("BMP")){
-            UUID uuid = UUID.randomUUID();
-            String tempPath =System.getProperty("java.io.tmpdir");
-            bmpFileName = tempPath + File.separator +  uuid.toString() + ".bmp";
+        //按块一次遍历所有波段计算拉伸值，有金字塔时使用与读取缩略图相同的金字塔层
+        RasterStatistics statistics = new RasterStatistics().setApproxOK(true, dstCols, dstRows);
+        if (lowPercent >= 0) {
+            statistics.setPercentiles(lowPercent, highPercent);
         }
-
-        Dataset bmpDataset = driver.Create(bmpFileName, dstCols, dstRows, bands.length,
-                gdalconstConstants.GDT_Byte);
-        if (bmpDataset == null){
-            log.error("Fail to create bmp image driver");
+        BandStatistics[] stats = statistics.compute(inDataset, bands);
+        bytesRead += statistics.getBytesRead();
+        if (stats == null) {
+            inDataset.delete();
             return false;
         }
-        byte dstBuffer[] = new byte[ dstCols ];//输出缓存
+        float minVal[] = new float[3];
+        float maxVal[] = new float[3];
+        for (int k=0; k<bands.length; k++){
+            minVal[k] = (float) stats[k].getStretchMin();
+            maxVal[k] = (float) stats[k].getStretchMax();
+        }
+        float buffer[] = new float[dstCols * dstRows];
+        byte mask[] = null;
+        //直接在内存中拉伸并组装像元，同一循环内根据nodata计算透明掩膜
+        int pixels[] = new int[dstCols * dstRows];
+        Arrays.fill(pixels, 0xFF000000);
+        boolean hasMask = false;
+        //每个像元等于nodata的波段数，声明了nodata的波段全部等于nodata时才透明
+        byte noDataHits[] = null;
+        int noDataBands = 0;
 
         for (int k=0; k<bands.length; k++){
-            Band bandWrite = bmpDataset.GetRasterBand(k+1);
             Band bandRead = inDataset.GetRasterBand(bands[k]);
-
-            int offset, offsetY = 0;
-            for (int i=0; i<nRows; i += stepSize){
-                if(bandRead.ReadRaster(0, i, nCols, 1, buffer) !=
-                        gdalconstConstants.CE_None){
-                    log.error("读取影像数据失败.");
-                    return false;
+            int flags = bandRead.GetMaskFlags();
+            Double nodata[] = new Double[1];
+            if ((flags & gdalconstConstants.GMF_NODATA) != 0){
+                bandRead.GetNoDataValue(nodata);
+            }else if (mask == null && (flags & gdalconstConstants.GMF_ALL_VALID) == 0){
+                //alpha波段或独立掩膜，与数据使用同一金字塔层按缩略图大小读取
+                mask = new byte[dstCols * dstRows];
+                Band maskBand = OverviewReader.selectOverview(bandRead.GetMaskBand(), dstCols, dstRows);
+                OverviewReader.beginResampling(resampling);
+                int err;
+                try {
+                    err = maskBand.ReadRaster(0, 0, maskBand.getXSize(), maskBand.getYSize(), dstCols, dstRows,
+                            gdalconstConstants.GDT_Byte, mask);
+                } finally {
+                    OverviewReader.endResampling();
                 }
-                offset = 0;
-                for(int j=0; j<nCols; j+=stepSize){
-                    dstBuffer[offset] = (byte) ((buffer[j] - minVal[k]) * 256 / (maxVal[k] - minVal[k] + 1));
-                    offset++;
+                if (err != gdalconstConstants.CE_None){
+                    log.error("读取影像掩膜失败.");
+                    inDataset.delete();
+                    return false;
                 }
-                bandWrite.WriteRaster(0, offsetY, dstCols, 1, dstBuffer);
-                offsetY++;
             }
-        }
-        bmpDataset.delete();
-        driver.delete();
-
-        if(gType.equals("PNG")){
-            try {
-                BufferedImage source = ImageIO.read(new File(bmpFileName));
-                int color = getNoDataRGB(source);
-                Image image = makeColorTransparent(source, new Color(color));
-                BufferedImage transparent = imageToBufferedImage(image);
-                ImageIO.write(transparent, "PNG", new File(outputFileName));
-            }catch (IOException e){
-                log.error(e.getMessage(), e);
+
+            //直接读取降采样后的窗口，由GDAL选择金字塔层并重采样
+            if (!OverviewReader.read(bandRead, dstCols, dstRows, buffer, resampling)){
+                inDataset.delete();
                 return false;
             }
-        }else if(!gType.equals("BMP")) {
-            Driver outDriver = gdal.GetDriverByName(gType);
-            if (outDriver == null) {
-                log.error("Fail to create " + gType + " image driver");
-                return false;
+            Band source = OverviewReader.selectOverview(bandRead, dstCols, dstRows);
+            bytesRead += (long) source.getXSize() * source.getYSize()
+                    * gdal.GetDataTypeSize(source.getDataType()) / 8;
+            boolean checkNoData = nodata[0] != null;
+            float noDataVal = checkNoData ? nodata[0].floatValue() : 0;
+            int shift = bands.length == 1 ? -1 : 16 - 8 * k;
+            if (checkNoData){
+                noDataBands++;
+                hasMask = true;
+                if (noDataHits == null){
+                    noDataHits = new byte[buffer.length];
+                }
+            }
+            for (int i=0; i<buffer.length; i++){
+                if (checkNoData && buffer[i] == noDataVal){
+                    noDataHits[i]++;
+                }
+                float val = Math.min(Math.max(buffer[i], minVal[k]), maxVal[k]);
+                int value = ((int) ((val - minVal[k]) * 256 / (maxVal[k] - minVal[k] + 1))) & 0xFF;
+                pixels[i] |= shift < 0 ? (value << 16) | (value << 8) | value : value << shift;
             }
-            Dataset outDataset = outDriver.CreateCopy(outputFileName, bmpDataset, 0);
-            outDataset.delete();
         }
         inDataset.delete();
-        return true;
-    }
 
-    private static BufferedImage imageToBufferedImage(Image image) {
-        BufferedImage bufferedImage = new BufferedImage(image.getWidth(null),
-                image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = bufferedImage.createGraphics();
-        g2.drawImage(image, 0, 0, null);
-        g2.dispose();
-        return bufferedImage;
-    }
+        if (noDataHits != null){
+            for (int i=0; i<pixels.length; i++){
+                if (noDataHits[i] == noDataBands){
+                    pixels[i] &= 0x00FFFFFF;
+                }
+            }
+        }
 
-    public static Image makeColorTransparent(BufferedImage im, final Color color) {
-        ImageFilter filter = new RGBImageFilter() {
-            // the color we are looking for... Alpha bits are set to opaque
-            public int markerRGB = color.getRGB() | 0xFF000000;
-            public final int filterRGB(int x, int y, int rgb) {
-                if ((rgb | 0xFF000000) == markerRGB) {
-                    // Mark the alpha bits as zero - transparent
-                    return 0x00FFFFFF & rgb;
-                } else {
-                    // nothing to do
-                    return rgb;
+        if (mask != null){
+            for (int i=0; i<pixels.length; i++){
+                int a = Math.min(pixels[i] >>> 24, mask[i] & 0xFF);
+                pixels[i] = (pixels[i] & 0x00FFFFFF) | (a << 24);
+            }
+            hasMask = true;
+        }
+
+        boolean alpha = ImageEncoder.supportsAlpha(format);
+        if (alpha && !hasMask){
+            //影像未声明nodata时，将边缘最多的颜色视为背景
+            int color = getNoDataRGB(pixels, dstCols, dstRows);
+            for (int i=0; i<pixels.length; i++){
+                if (pixels[i] == color){
+                    pixels[i] &= 0x00FFFFFF;
                 }
             }
-        };
-        ImageProducer ip = new FilteredImageSource(im.getSource(), filter);
-        return Toolkit.getDefaultToolkit().createImage(ip);
+        }
+
+        BufferedImage image = ImageEncoder.wrap(pixels, dstCols, dstRows, alpha);
+        return ImageEncoder.write(image, format, new File(outputFileName));
+    }
+
+    /**
+     * HDFS上的影像打开本地稀疏缓存(只含文件头)，本地影像返回null
+     */
+    private HDFSRasterCache openCache(String inputFileName){
+        return HDFSRasterCache.isRemote(inputFileName) ? HDFSRasterCache.open(inputFileName) : null;
     }
 
-    private int getNoDataRGB(BufferedImage source){
+    /**
+     * 统计缩略图四条边上出现最多的颜色
+     */
+    private int getNoDataRGB(int[] pixels, int width, int height){
         int [][] boundVals = new int[4][];
-        boundVals[0] = source.getRGB(0, 0, 1,
-                source.getHeight(), null, 0, source.getWidth());
-        boundVals[1] = source.getRGB(0, 0, source.getWidth(),
-                1, null, 0, source.getWidth());
-        boundVals[2] = source.getRGB(source.getWidth()-1, 0, 1,
-                source.getHeight(), null, 0, source.getWidth());
-        boundVals[3] = source.getRGB(0, source.getHeight()-1,
-                source.getWidth(),1, null, 0, source.getWidth());
+        boundVals[0] = new int[height];
+        boundVals[1] = Arrays.copyOfRange(pixels, 0, width);
+        boundVals[2] = new int[height];
+        boundVals[3] = Arrays.copyOfRange(pixels, (height - 1) * width, height * width);
+        for (int i=0; i<height; i++){
+            boundVals[0][i] = pixels[i * width];
+            boundVals[2][i] = pixels[i * width + width - 1];
+        }
 
         Map<Integer, Integer> valueCount = countValuesMap(boundVals);
         int rgbMax = 0, countMax = 0;
@@ -1,57 +1,161 @@
 package ai.geodata;
 
 import ai.geodata.common.BoundingBox;
+import ai.geodata.common.ContentValue;
 import ai.geodata.common.Dimensions;
+import ai.geodata.common.ImageEncoder;
+import ai.geodata.common.SceneRecord;
 import ai.geodata.conf.Configuration;
+import ai.geodata.g2t.DirectoryTileStore;
 import ai.geodata.g2t.GeoTransformation;
+import ai.geodata.g2t.PackTileStore;
+import ai.geodata.g2t.TileManifest;
+import ai.geodata.g2t.TileRenderer;
+import ai.geodata.g2t.TileStore;
+import ai.geodata.util.GDALRegistry;
 import ai.geodata.util.GlobalGeodetic;
+import ai.geodata.util.GlobalMercator;
+import ai.geodata.util.HDFSRasterCache;
+import ai.geodata.util.TileProfile;
 import org.apache.log4j.Logger;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconstConstants;
 import org.gdal.osr.SpatialReference;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GDAL2Tiles {
     Logger log = Logger.getLogger(GDAL2Tiles.class);
     private Configuration conf = new Configuration();
 
+    //输出目录下记录已完成瓦片的清单文件
+    public static final String MANIFEST_NAME = "tiles.manifest";
+    //pack方式输出时的瓦片包文件
+    public static final String PACK_NAME = "tiles.pack";
+    //每完成若干张瓦片保存一次清单
+    private static final int MANIFEST_SAVE_INTERVAL = 10000;
+    //缓存编码结果的纯色瓦片颜色数上限
+    private static final int UNIFORM_CACHE_SIZE = 256;
+
     private int tileSize = 256;
     private int maxZoomLevel = 32;
 
-    private GlobalGeodetic geodetic = null;
-    private int tsize = tileSize;
+    private TileProfile profile = null;
 
+    private String inputPath = null;
+    //构造时传入的路径，可能是hdfs://路径
+    private String sourcePath = null;
+    //HDFS上影像的本地缓存，close()前不会被清除
+    private HDFSRasterCache cache = null;
     private double[] out_gt = null;
+    //warped VRT引用原始影像，需持有其引用避免被回收
+    private Dataset inDataset = null;
     private Dataset outDataset = null;
     private BoundingBox bbox = null;
+    //切片时的重采样方法，取值见ContentValue.resamplingList
+    private String resampling = "average";
+    //瓦片的存储方式，取值见ContentValue.tileStoreList
+    private String tileStore = "directory";
 
 
     public GDAL2Tiles(String inputPath){
-        gdal.AllRegister();
+        this(inputPath, "geodetic");
+    }
+
+    /**
+     * @param inputPath 输入影像路径，hdfs://路径的影像先下载到本地缓存
+     * @param profile 瓦片坐标系，ContentValue.profileList中的mercator(EPSG:3857)或geodetic(EPSG:4326)
+     */
+    public GDAL2Tiles(String inputPath, String profile){
+        GDALRegistry.register();
         tileSize = Integer.parseInt(conf.get("tileSize"));
         maxZoomLevel = Integer.parseInt(conf.get("maxZoomLevel"));
 
-        if (transformRaster(inputPath)){
+        this.profile = createProfile(profile, tileSize);
+        if (this.profile == null){
+            log.error("Unsupported tile profile: " + profile);
+            return;
+        }
+        this.sourcePath = inputPath;
+        //切片要读取全部数据，HDFS上的影像整个下载(已缓存的部分不再下载)，各线程共用本地缓存
+        this.inputPath = inputPath;
+        if (HDFSRasterCache.isRemote(inputPath)){
+            this.cache = HDFSRasterCache.localize(inputPath);
+            if (this.cache == null){
+                log.error("Failed to fetch input from HDFS: " + inputPath);
+                this.inputPath = null;
+                return;
+            }
+            this.inputPath = cache.getLocalPath();
+        }
+        if (transformRaster(this.inputPath)){
             this.bbox = new GeoTransformation(this.out_gt).getBounds(
                     new Dimensions<Integer>(outDataset.getRasterXSize(),
                             outDataset.getRasterYSize()));
         }
-        this.geodetic = new GlobalGeodetic(null, tileSize);
+    }
+
+    private static TileProfile createProfile(String profile, int tileSize){
+        if (!Arrays.asList(ContentValue.profileList).contains(profile))
+            return null;
+        if (profile.equals("mercator"))
+            return new GlobalMercator(tileSize);
+        if (profile.equals("geodetic"))
+            return new GlobalGeodetic(null, tileSize);
+        //raster需按影像自身像元切片，暂不支持
+        return null;
     }
 
     /**
-     * 将影像投影转为EPSG:4326（WGS84）
+     * 瓦片坐标系
+     */
+    public TileProfile getProfile(){
+        return this.profile;
+    }
+
+    /**
+     * 将影像投影转为瓦片坐标系
      * @param inputImgPath 输入图像路径
      * @return 投影转换是否成功
      */
     private boolean transformRaster(String inputImgPath){
+        Dataset[] datasets = openWarped(inputImgPath);
+        if (datasets == null)
+            return false;
+
+        this.inDataset = datasets[0];
+        this.outDataset = datasets[1];
+        this.out_gt = outDataset.GetGeoTransform();
+
+        return true;
+    }
+
+    /**
+     * 打开影像并创建转换到瓦片坐标系(EPSG:4326或EPSG:3857)的warped VRT。
+     * 返回的两个数据集都只能在一个线程中使用，原始影像须在VRT之后关闭。
+     * @param inputImgPath 输入图像路径
+     * @return {原始影像, 转换后影像}，无需转换时两者相同；失败时返回null
+     */
+    private Dataset[] openWarped(String inputImgPath){
+        Dataset outDataset = null;
         Dataset inDataset = gdal.Open(inputImgPath, gdalconstConstants.GA_ReadOnly);
         if (inDataset == null){
             log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
             log.error(gdal.GetLastErrorMsg());
-            return false;
+            return null;
         }
 
         String inSrsWkt = inDataset.GetProjection();
@@ -63,13 +167,13 @@ public class GDAL2Tiles {
             inSrs.ImportFromWkt(inSrsWkt);
 
         SpatialReference outSrs = new SpatialReference();
-        outSrs.ImportFromEPSG(4326);  //geodetic
+        outSrs.ImportFromEPSG(profile.getEPSG());
 
         double initGeoTrans[] = {0.0, 1.0, 0.0, 0.0, 0.0, 1.0};
         if (Arrays.equals(inDataset.GetGeoTransform(), initGeoTrans) & inDataset.GetGCPCount() == 0) {
             log.error("There is no georeference - neither affine transformation (worldfile) nor GCPs. You can generate only 'raster' profile tiles." +
                     "Either gdal2tiles with parameter -p 'raster' or use another GIS software for georeference e.g. gdal_transform -gcp / -a_ullr / -a_srs");
-            return false;
+            return null;
         }
 
         if (inSrs != null){
@@ -78,30 +182,27 @@ public class GDAL2Tiles {
         }
         else {
             log.error("Input file has unknown SRS. Use --s_srs ESPG:xyz (or similar) to provide source reference system.");
-            return false;
+            return null;
         }
 
         if (outDataset == null)
             outDataset = inDataset;
 
-        this.out_gt = outDataset.GetGeoTransform();
-
-        return true;
+        return new Dataset[]{inDataset, outDataset};
     }
 
     /**
      * 返回所有缩放级别的瓦片范围
      */
     public List<int[]> getZoomLevels(){
-//        this.tileswne = this.geodetic.tileLatLonBounds();
         List<int[]> tminmax = new LinkedList<int[]>();
         for (int tz = 0; tz < maxZoomLevel; tz++) {
-            int[] tminxy = this.geodetic.lonlatToTile(this.bbox.getMinimumX(), this.bbox.getMinimumY(), tz);
-            int[] tmaxxy = this.geodetic.lonlatToTile(this.bbox.getMaximumX(), this.bbox.getMaximumY(), tz);
+            int[] tminxy = this.profile.coordsToTile(this.bbox.getMinimumX(), this.bbox.getMinimumY(), tz);
+            int[] tmaxxy = this.profile.coordsToTile(this.bbox.getMaximumX(), this.bbox.getMaximumY(), tz);
+            int[] tlimit = this.profile.maxTile(tz);
 
             tminxy = new int[]{Math.max(0, tminxy[0]), Math.max(0, tminxy[1])};
-            tmaxxy = new int[]{Math.min((int) Math.pow(2, tz + 1) - 1, tmaxxy[0]),
-                    (int) Math.min(Math.pow(2, tz) - 1, tmaxxy[1])};
+            tmaxxy = new int[]{Math.min(tlimit[0], tmaxxy[0]), Math.min(tlimit[1], tmaxxy[1])};
 
             tminmax.add(tz, new int[]{tminxy[0], tminxy[1], tmaxxy[0], tmaxxy[1]});
         }
@@ -115,18 +216,421 @@ public class GDAL2Tiles {
         return this.bbox;
     }
 
+    /**
+     * 影像在目录中的记录：瓦片坐标系下的范围、波段数和缩放级别
+     * @param hdfsLocation 影像在HDFS上的位置，未上传时为null
+     * @param keywords 关键字
+     * @return 影像未能打开时返回null
+     */
+    public SceneRecord describe(String hdfsLocation, String... keywords){
+        if (this.bbox == null)
+            return null;
+        return new SceneRecord(this.sourcePath, this.bbox, "EPSG:" + this.profile.getEPSG(),
+                this.inDataset.GetRasterCount(), getTileMinZoom(), getTileMaxZoom(),
+                SceneRecord.NO_TIME, SceneRecord.NO_TIME, hdfsLocation, keywords);
+    }
+
     /**
      * 影像瓦片的最小缩放级别
      */
     public int getTileMinZoom(){
-        return this.geodetic.zoomForPixelSize(this.out_gt[1] * Math.max(this.outDataset.getRasterYSize(),
-                this.outDataset.getRasterYSize()) / (float) (this.tsize));
+        return this.profile.zoomForPixelSize(this.out_gt[1] * Math.max(this.outDataset.getRasterXSize(),
+                this.outDataset.getRasterYSize()) / (float) (this.tileSize));
     }
     /**
      * 影像瓦片的最大缩放级别
      */
     public int getTileMaxZoom(){
-        return this.geodetic.zoomForPixelSize(this.out_gt[1]);
+        return this.profile.zoomForPixelSize(this.out_gt[1]);
+    }
+
+    /**
+     * @param resampling 切片时的重采样方法，ContentValue.resamplingList中的一项，默认average
+     */
+    public void setResampling(String resampling){
+        if (OverviewReader.toGDALResampling(resampling) == null){
+            throw new IllegalArgumentException("Unsupported resampling method: " + resampling);
+        }
+        this.resampling = resampling;
+    }
+
+    /**
+     * 设置瓦片的存储方式：
+     * directory按TMS目录结构每张瓦片一个文件；
+     * pack将全部瓦片写入输出目录下的单个瓦片包(tiles.pack)，避免产生大量小文件，相同内容的小瓦片只存一份
+     * @param tileStore ContentValue.tileStoreList中的一项，默认directory
+     */
+    public void setTileStore(String tileStore){
+        if (!Arrays.asList(ContentValue.tileStoreList).contains(tileStore)){
+            throw new IllegalArgumentException("Unsupported tile store: " + tileStore);
+        }
+        this.tileStore = tileStore;
+    }
+
+    /**
+     * 使用全部CPU核生成瓦片金字塔，见{@link #generateTiles(String, String, int)}
+     */
+    public boolean generateTiles(String outputDir, String tileFormat){
+        return generateTiles(outputDir, tileFormat, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 生成瓦片金字塔，按TMS目录结构写出 outputDir/z/x/y.ext，或写入瓦片包(见setTileStore)。
+     * 只有最大级别从影像切取，其余级别由4张子瓦片降采样合成，不再重复读取影像。
+     * 最小级别的每张瓦片及其子树是一个fork-join任务，子瓦片完成后立即合成上一级，
+     * 不需要等待整个级别完成；每个工作线程打开各自的影像和warped VRT。
+     * 已完成的瓦片记录在outputDir下的清单中，中断后再次执行时跳过已完成的瓦片。
+     * @param outputDir 输出目录
+     * @param tileFormat png或jpg
+     * @param threads 线程数
+     * @return 是否成功
+     */
+    public boolean generateTiles(String outputDir, String tileFormat, int threads){
+        return generateTiles(outputDir, tileFormat, threads, null);
+    }
+
+    /**
+     * 增量更新瓦片：只重新生成与变化范围相交的瓦片及其各级上级瓦片，
+     * 其余瓦片沿用清单中已完成的结果，合成上一级时从输出目录读取。
+     * @param outputDir 已有瓦片的输出目录
+     * @param tileFormat png或jpg，须与已有瓦片一致
+     * @param threads 线程数
+     * @param changed 影像发生变化的范围，坐标为瓦片坐标系(见getBounds)下的坐标
+     * @return 是否成功
+     */
+    public boolean updateTiles(String outputDir, String tileFormat, int threads, BoundingBox changed){
+        if (changed == null){
+            throw new IllegalArgumentException("changed must not be null");
+        }
+        return generateTiles(outputDir, tileFormat, threads, changed);
+    }
+
+    private boolean generateTiles(String outputDir, String tileFormat, int threads, BoundingBox changed){
+        if (this.outDataset == null){
+            log.error("影像未能成功转换投影，无法切片.");
+            return false;
+        }
+        String format = ImageEncoder.formatOf("." + tileFormat);
+        if (format == null || format.equals("bmp") || format.equals("gif")){
+            log.error("瓦片只支持png或jpg格式: " + tileFormat);
+            return false;
+        }
+        int tminz = getTileMinZoom();
+        int tmaxz = getTileMaxZoom();
+        List<int[]> tminmax = new ArrayList<int[]>(getZoomLevels());
+        String extension = "." + tileFormat.toLowerCase();
+
+        File dir = new File(outputDir);
+        if (!dir.mkdirs() && !dir.isDirectory()){
+            log.error("无法创建目录: " + dir);
+            return false;
+        }
+        TileStore store;
+        boolean storeCreated = false;
+        if (tileStore.equals("pack")){
+            try {
+                PackTileStore pack = new PackTileStore(new File(dir, PACK_NAME), tminmax, tminz, tmaxz);
+                storeCreated = pack.isCreated();
+                store = pack;
+            } catch (IOException e) {
+                log.error("无法打开瓦片包: " + e.getMessage(), e);
+                return false;
+            }
+        }else{
+            store = new DirectoryTileStore(dir, extension);
+        }
+
+        File manifestFile = new File(dir, MANIFEST_NAME);
+        TileManifest manifest = storeCreated ? null : TileManifest.load(manifestFile, tminmax, tminz, tmaxz,
+                tileSize, profile.getEPSG(), extension);
+        if (manifest == null){
+            manifest = new TileManifest(tminmax, tminz, tmaxz, tileSize, profile.getEPSG(), extension);
+        }else if (changed != null){
+            log.info("增量更新，清除与变化范围相交的瓦片" + manifest.invalidate(changed, profile) + "张");
+        }
+        long skipped = manifest.getDoneCount();
+        if (skipped > 0){
+            log.info("从清单恢复，跳过已完成的瓦片" + skipped + "张");
+        }
+        final TileJob job = new TileJob(tminmax, tminz, tmaxz, store, format, manifest, manifestFile);
+
+        long start = System.currentTimeMillis();
+        int[] range = job.tminmax.get(tminz);
+        final List<TileTask> roots = new ArrayList<TileTask>();
+        for (int ty = range[1]; ty <= range[3]; ty++){
+            for (int tx = range[0]; tx <= range[2]; tx++){
+                roots.add(new TileTask(job, tx, ty, tminz));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(roots);
+                }
+            });
+        } finally {
+            //某个任务抛出异常时其他任务可能仍在使用GDAL数据集，须等全部结束后才能关闭
+            pool.shutdownNow();
+            awaitTermination(pool);
+            job.close();
+            //瓦片持久化后再保存清单，失败时也保存，下次从中断处继续
+            store.close();
+            manifest.save(manifestFile);
+        }
+        if (job.failed.get()){
+            log.error("切片失败.");
+            return false;
+        }
+        log.info("切片完成，级别" + tminz + "-" + tmaxz + "，共" + job.count.get() + "张(纯色"
+                + job.uniform.get() + "张)，跳过空瓦片" + job.empty.get() + "张，" + threads + "线程，耗时" + (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * 等待线程池中正在执行的任务全部结束，期间的中断在结束后恢复
+     */
+    private void awaitTermination(ForkJoinPool pool){
+        boolean interrupted = false;
+        while (true){
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES))
+                    break;
+                log.warn("等待切片线程结束...");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * 一次切片的共享状态
+     */
+    private class TileJob {
+        final List<int[]> tminmax;
+        final int tminz;
+        final int tmaxz;
+        final int tileSize = GDAL2Tiles.this.tileSize;
+        final TileStore store;
+        final String format;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong empty = new AtomicLong();
+        final AtomicLong uniform = new AtomicLong();
+        //纯色瓦片按颜色缓存编码结果，相同颜色只编码一次
+        private final ConcurrentHashMap<Integer, byte[]> uniformTiles = new ConcurrentHashMap<Integer, byte[]>();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final TileManifest manifest;
+        private final File manifestFile;
+        private final AtomicLong completed = new AtomicLong();
+
+        //GDAL数据集不能跨线程共享，每个工作线程打开各自的影像
+        private final List<Dataset> opened = Collections.synchronizedList(new ArrayList<Dataset>());
+        private final ThreadLocal<TileRenderer> renderers = new ThreadLocal<TileRenderer>() {
+            @Override
+            protected TileRenderer initialValue() {
+                Dataset[] datasets = openWarped(inputPath);
+                if (datasets == null){
+                    return null;
+                }
+                if (datasets[1] != datasets[0]){
+                    opened.add(datasets[1]);
+                }
+                opened.add(datasets[0]);
+                return new TileRenderer(datasets[1], profile, tileSize, resampling);
+            }
+        };
+
+        TileJob(List<int[]> tminmax, int tminz, int tmaxz, TileStore store, String format,
+                TileManifest manifest, File manifestFile){
+            this.tminmax = tminmax;
+            this.tminz = tminz;
+            this.tmaxz = tmaxz;
+            this.store = store;
+            this.format = format;
+            this.manifest = manifest;
+            this.manifestFile = manifestFile;
+        }
+
+        TileRenderer renderer(){
+            return renderers.get();
+        }
+
+        boolean write(int tx, int ty, int tz, int[] pixels){
+            byte[] data;
+            if (TileRenderer.isUniform(pixels)){
+                data = uniformTiles.get(pixels[0]);
+                if (data == null){
+                    data = encode(pixels);
+                    if (data != null && uniformTiles.size() < UNIFORM_CACHE_SIZE){
+                        uniformTiles.putIfAbsent(pixels[0], data);
+                    }
+                }
+                uniform.incrementAndGet();
+            }else{
+                data = encode(pixels);
+            }
+            if (data == null){
+                return false;
+            }
+            count.incrementAndGet();
+            return store.put(tx, ty, tz, data);
+        }
+
+        private byte[] encode(int[] pixels){
+            return ImageEncoder.encode(ImageEncoder.wrap(pixels, tileSize, tileSize,
+                    ImageEncoder.supportsAlpha(format)), format);
+        }
+
+        /**
+         * 读取已完成的瓦片，供合成上一级使用；瓦片不存在(空瓦片)时返回null
+         */
+        int[] read(int tx, int ty, int tz){
+            byte[] data = store.get(tx, ty, tz);
+            if (data == null){
+                return null;
+            }
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+                if (image != null && image.getWidth() == tileSize && image.getHeight() == tileSize){
+                    return image.getRGB(0, 0, tileSize, tileSize, null, 0, tileSize);
+                }
+                log.error("已完成的瓦片无法读取: " + tz + "/" + tx + "/" + ty);
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            failed.set(true);
+            return null;
+        }
+
+        /**
+         * 记录瓦片已完成，并定期保存清单
+         */
+        void markDone(int tx, int ty, int tz){
+            manifest.markDone(tx, ty, tz);
+            if (completed.incrementAndGet() % MANIFEST_SAVE_INTERVAL == 0){
+                checkpoint();
+            }
+        }
+
+        /**
+         * 先复制清单再持久化瓦片，保证清单中记为完成的瓦片都已写入
+         */
+        synchronized void checkpoint(){
+            TileManifest snapshot = manifest.copy();
+            if (store.flush()){
+                snapshot.save(manifestFile);
+            }
+        }
+
+        /**
+         * 关闭各线程打开的数据集，warped VRT先于其原始影像关闭
+         */
+        void close(){
+            synchronized (opened){
+                for (int i = 0; i < opened.size(); i++){
+                    opened.get(i).delete();
+                }
+                opened.clear();
+            }
+        }
+    }
+
+    /**
+     * 生成瓦片(tx, ty, tz)及其全部子瓦片，返回该瓦片的像元，子瓦片在内存中传给上一级
+     */
+    private static class TileTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final TileJob job;
+        private final int tx, ty, tz;
+
+        TileTask(TileJob job, int tx, int ty, int tz){
+            this.job = job;
+            this.tx = tx;
+            this.ty = ty;
+            this.tz = tz;
+        }
+
+        @Override
+        protected int[] compute(){
+            if (job.failed.get()){
+                return null;
+            }
+            if (job.manifest.isDone(tx, ty, tz)){
+                //最小级别的结果不再使用，无需读取
+                return tz == job.tminz ? null : job.read(tx, ty, tz);
+            }
+            int[] pixels;
+            if (tz == job.tmaxz){
+                TileRenderer renderer = job.renderer();
+                if (renderer == null){
+                    job.failed.set(true);
+                    return null;
+                }
+                pixels = renderer.renderTile(tx, ty, tz);
+                if (pixels == TileRenderer.READ_FAILED){
+                    job.failed.set(true);
+                    return null;
+                }
+            }else{
+                int[] range = job.tminmax.get(tz + 1);
+                TileTask[] children = new TileTask[4];
+                List<TileTask> forked = new ArrayList<TileTask>(4);
+                for (int q = 0; q < 4; q++){
+                    int cx = 2 * tx + q % 2;
+                    int cy = 2 * ty + q / 2;
+                    if (cx < range[0] || cx > range[2] || cy < range[1] || cy > range[3]){
+                        continue;
+                    }
+                    children[q] = new TileTask(job, cx, cy, tz + 1);
+                    forked.add(children[q]);
+                }
+                invokeAll(forked);
+                int[][] childPixels = new int[4][];
+                for (int q = 0; q < 4; q++){
+                    childPixels[q] = children[q] == null ? null : children[q].join();
+                }
+                pixels = TileRenderer.downsample(childPixels, job.tileSize);
+            }
+            if (job.failed.get()){
+                //读取失败的瓦片及由其合成的上级瓦片不能当作空瓦片删除，也不能记为完成，下次续切时重试
+                return null;
+            }
+            if (pixels != null && pixels[0] == 0 && TileRenderer.isUniform(pixels)){
+                //全透明的瓦片与不存在等同，不编码也不写出
+                pixels = null;
+            }
+            if (pixels == null){
+                job.empty.incrementAndGet();
+                //增量更新后变为空的瓦片，删除旧瓦片
+                job.store.remove(tx, ty, tz);
+            }
+            if (pixels != null && !job.write(tx, ty, tz, pixels)){
+                job.failed.set(true);
+            }else{
+                job.markDone(tx, ty, tz);
+            }
+            return pixels;
+        }
+    }
+
+    /**
+     * 关闭影像，释放HDFS影像的本地缓存，之后不能再切片
+     */
+    public void close(){
+        if (outDataset != null && outDataset != inDataset)
+            outDataset.delete();
+        if (inDataset != null)
+            inDataset.delete();
+        outDataset = null;
+        inDataset = null;
+        if (cache != null){
+            cache.close();
+            cache = null;
+        }
     }
 
     public static void main(String [] args){
@@ -137,5 +641,7 @@ public class GDAL2Tiles {
         System.out.println(tiles.getTileMinZoom());
         System.out.println(tiles.getTileMaxZoom());
         System.out.println(tiles.getZoomLevels());
+        tiles.generateTiles("D:\\data\\tiles", "png");
+        tiles.close();
     }
 }
@@ -5,59 +5,465 @@
  */
 
 package ai.geodata;
+import ai.geodata.common.ContentValue;
+import ai.geodata.common.TransferReport;
+import ai.geodata.common.TransferResult;
+import ai.geodata.util.GDALRegistry;
+import ai.geodata.util.HDFSRasterCache;
 import org.apache.log4j.Logger;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.ProgressCallback;
+import org.gdal.gdal.TranslateOptions;
 import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 默认在进程内调用gdal.Translate转换，同一实例可在多个线程中同时转换不同影像；
+ * setExternal(true)时改为启动gdal_translate进程
+ */
 public class GDALTranslate {
     protected Logger log = Logger.getLogger(GDALTranslate.class);
 
+    //外部进程运行时检查取消状态的间隔
+    private static final long CANCEL_POLL_MILLIS = 200;
+
+    //COG的压缩方式，取值见ContentValue.compressionList
+    private String compression = "deflate";
+    //预测器：1不使用，2水平差分(整型)，3浮点
+    private int predictor = 1;
+    //内部分块大小
+    private int blockSize = 512;
+    //生成金字塔时的重采样方法，取值见ContentValue.resamplingList
+    private String overviewResampling = "average";
+    //是否启动gdal_translate进程转换
+    private boolean external = false;
+    private volatile ProgressListener listener = null;
+    //cancel()时递增，开始时记录的值与当前值不同的转换即被取消
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * 转换进度监听
+     */
+    public interface ProgressListener {
+        /**
+         * @param source 正在转换的影像
+         * @param complete 完成比例，0到1
+         * @return false时取消该影像的转换
+         */
+        boolean onProgress(String source, double complete);
+    }
+
     public GDALTranslate(){
-        gdal.AllRegister();
+        GDALRegistry.register();
     }
     /**
      * 将其他格式的影像转为GeoTiff格式
-     * @param imgPath 其他格式的影像
+     * @param imgPath 其他格式的影像，hdfs://路径的影像先下载到本地缓存
      * @param tiffPath GeoTiff格式的影像
      * @return 是否成功执行
      */
     public boolean image2GTiff(String imgPath, String tiffPath){
-        String[] cmd = {"gdal_translate", "-of", "GTiff", imgPath, tiffPath};
+        return image2GTiff(imgPath, tiffPath, generation.get());
+    }
+
+    /**
+     * 将影像转为Cloud Optimized GeoTIFF：内部分块、压缩，内部金字塔与IFD位于文件头部，
+     * 之后的缩略图、切片和范围读取都只需读取用到的块
+     * @param imgPath 其他格式的影像，hdfs://路径的影像先下载到本地缓存
+     * @param cogPath 输出的COG影像
+     * @return 是否成功执行
+     */
+    public boolean image2COG(String imgPath, String cogPath){
+        return image2COG(imgPath, cogPath, generation.get());
+    }
+
+    /**
+     * 并行将多个影像转为GeoTiff，输出为outputDir下同名的.tif文件
+     * @param imgPaths 输入影像
+     * @param outputDir 输出目录
+     * @param threads 同时转换的影像数
+     * @return 每个影像的结果(bytes为输出文件大小)及整体速度
+     */
+    public TransferReport image2GTiffAll(List<String> imgPaths, String outputDir, int threads){
+        return convertAll(imgPaths, outputDir, threads, false);
+    }
+
+    /**
+     * 并行将多个影像转为COG，输出为outputDir下同名的.tif文件
+     * @param imgPaths 输入影像
+     * @param outputDir 输出目录
+     * @param threads 同时转换的影像数
+     * @return 每个影像的结果(bytes为输出文件大小)及整体速度
+     */
+    public TransferReport image2COGAll(List<String> imgPaths, String outputDir, int threads){
+        return convertAll(imgPaths, outputDir, threads, true);
+    }
+
+    /**
+     * 取消正在进行和已提交尚未开始的转换，之后发起的转换不受影响
+     */
+    public void cancel(){
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @param listener 进度监听，null时不报告进度
+     */
+    public void setProgressListener(ProgressListener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * @param external true时启动gdal_translate进程转换，用于进程内驱动不可用的情况
+     */
+    public void setExternal(boolean external){
+        this.external = external;
+    }
+
+    /**
+     * 设置COG的压缩方式
+     * @param compression ContentValue.compressionList中的一项，默认deflate
+     */
+    public void setCompression(String compression){
+        if (!Arrays.asList(ContentValue.compressionList).contains(compression)){
+            throw new IllegalArgumentException("Unsupported compression: " + compression);
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * 设置deflate/lzw压缩的预测器，jpeg和packbits压缩时忽略
+     * @param predictor 1不使用，2水平差分(整型数据)，3浮点数据
+     */
+    public void setPredictor(int predictor){
+        if (predictor < 1 || predictor > 3){
+            throw new IllegalArgumentException("Predictor must be 1, 2 or 3");
+        }
+        this.predictor = predictor;
+    }
+
+    /**
+     * 设置内部分块大小
+     * @param blockSize 16的倍数，默认512
+     */
+    public void setBlockSize(int blockSize){
+        if (blockSize <= 0 || blockSize % 16 != 0){
+            throw new IllegalArgumentException("Block size must be a positive multiple of 16");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 设置生成金字塔时的重采样方法
+     * @param resampling ContentValue.resamplingList中的一项，默认average
+     */
+    public void setOverviewResampling(String resampling){
+        if (OverviewReader.toGDALResampling(resampling) == null){
+            throw new IllegalArgumentException("Unsupported resampling method: " + resampling);
+        }
+        this.overviewResampling = resampling;
+    }
+
+    private boolean image2GTiff(String imgPath, String tiffPath, int started){
+        return translate(imgPath, tiffPath, false, started);
+    }
+
+    private boolean image2COG(String imgPath, String cogPath, int started){
+        return translate(imgPath, cogPath, true, started);
+    }
+
+    /**
+     * HDFS上的影像先整个下载到本地缓存，转换期间缓存不会被清除
+     */
+    private boolean translate(String imgPath, String outPath, boolean cog, int started){
+        HDFSRasterCache cache = null;
+        String localPath = imgPath;
+        if (HDFSRasterCache.isRemote(imgPath)){
+            cache = HDFSRasterCache.localize(imgPath);
+            if (cache == null){
+                log.error("从HDFS读取影像失败: " + imgPath);
+                return false;
+            }
+            localPath = cache.getLocalPath();
+        }
+        try {
+            return cog ? localToCOG(imgPath, localPath, outPath, started)
+                    : convert(imgPath, localPath, outPath, Arrays.asList("-of", "GTiff"), 0, 1, started);
+        } finally {
+            if (cache != null)
+                cache.close();
+        }
+    }
+
+    private boolean localToCOG(String imgPath, String localPath, String cogPath, int started){
+        //先转为分块的GeoTiff并在其中生成金字塔，再用COPY_SRC_OVERVIEWS按COG布局整体复制
+        File tmpFile = new File(cogPath + ".tmp.tif");
+        try {
+            List<String> options = new ArrayList<String>(Arrays.asList("-of", "GTiff"));
+            options.addAll(creationOptions());
+            if (!convert(imgPath, localPath, tmpFile.getPath(), options, 0, 0.4, started))
+                return false;
+            if (!buildOverviews(imgPath, tmpFile.getPath(), started))
+                return false;
+
+            options.addAll(Arrays.asList("-co", "COPY_SRC_OVERVIEWS=YES"));
+            return convert(imgPath, tmpFile.getPath(), cogPath, options, 0.7, 0.3, started);
+        } finally {
+            if (tmpFile.exists() && !tmpFile.delete())
+                log.warn("无法删除临时文件: " + tmpFile);
+        }
+    }
+
+    private TransferReport convertAll(List<String> imgPaths, String outputDir, int threads, final boolean cog){
+        if (threads < 1){
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        final int started = generation.get();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, imgPaths.size())));
+        long start = System.nanoTime();
+        List<String> targets = new ArrayList<String>(imgPaths.size());
+        List<Future<TransferResult>> futures = new ArrayList<Future<TransferResult>>(imgPaths.size());
+        try {
+            for (final String imgPath : imgPaths){
+                String name = new File(imgPath).getName();
+                int dot = name.lastIndexOf('.');
+                final String target = new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + ".tif").getPath();
+                targets.add(target);
+                futures.add(pool.submit(new Callable<TransferResult>() {
+                    @Override
+                    public TransferResult call() {
+                        long begin = System.nanoTime();
+                        boolean success = cog ? image2COG(imgPath, target, started)
+                                : image2GTiff(imgPath, target, started);
+                        long millis = (System.nanoTime() - begin) / 1000000;
+                        return new TransferResult(imgPath, target, success, success ? new File(target).length() : 0,
+                                millis, success ? null : isCancelled(started) ? "cancelled" : gdal.GetLastErrorMsg());
+                    }
+                }));
+            }
+
+            List<TransferResult> results = new ArrayList<TransferResult>(imgPaths.size());
+            for (int i = 0; i < futures.size(); i++){
+                try {
+                    TransferResult result = futures.get(i).get();
+                    if (result.isSuccess()){
+                        log.info(result);
+                    }else{
+                        log.error(result);
+                    }
+                    results.add(result);
+                }catch (ExecutionException e){
+                    log.error(e.getMessage(), e);
+                    results.add(new TransferResult(imgPaths.get(i), targets.get(i), false, 0, 0,
+                            String.valueOf(e.getCause())));
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    log.error("批量转换被中断.");
+                    break;
+                }
+            }
+            TransferReport report = new TransferReport(results, (System.nanoTime() - start) / 1000000);
+            log.info(report);
+            return report;
+        }finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 转换一个影像，进度按base + weight * 完成比例报告
+     * @param source 用于报告进度的原始路径
+     * @param inputPath 本地输入路径
+     */
+    private boolean convert(String source, String inputPath, String outputPath, List<String> options,
+                            double base, double weight, int started){
+        if (isCancelled(started)){
+            log.warn("转换已取消: " + source);
+            return false;
+        }
+        if (external){
+            List<String> cmd = new ArrayList<String>();
+            cmd.add("gdal_translate");
+            cmd.addAll(options);
+            cmd.add(inputPath);
+            cmd.add(outputPath);
+            return runCommand(cmd.toArray(new String[0]), started);
+        }
+
+        Dataset inDataset = gdal.Open(inputPath, gdalconstConstants.GA_ReadOnly);
+        if (inDataset == null){
+            log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
+            log.error(gdal.GetLastErrorMsg());
+            return false;
+        }
+        TranslateOptions translateOptions = new TranslateOptions(new Vector<String>(options));
+        Progress progress = new Progress(source, base, weight, started);
+        Dataset outDataset = null;
+        try {
+            gdal.ErrorReset();
+            outDataset = gdal.Translate(outputPath, inDataset, translateOptions, progress);
+            if (outDataset == null){
+                if (isCancelled(started) || progress.aborted){
+                    log.warn("转换已取消: " + source);
+                }else{
+                    log.error("gdal.Translate失败: " + source + ", " + gdal.GetLastErrorMsg());
+                }
+                File output = new File(outputPath);
+                if (output.exists() && !output.delete())
+                    log.warn("无法删除未完成的文件: " + output);
+                return false;
+            }
+            return true;
+        } finally {
+            //关闭输出数据集时才写完全部数据
+            if (outDataset != null)
+                outDataset.delete();
+            translateOptions.delete();
+            inDataset.delete();
+        }
+    }
+
+    private List<String> creationOptions(){
+        List<String> options = new ArrayList<String>();
+        options.addAll(Arrays.asList("-co", "TILED=YES"));
+        options.addAll(Arrays.asList("-co", "BLOCKXSIZE=" + blockSize, "-co", "BLOCKYSIZE=" + blockSize));
+        options.addAll(Arrays.asList("-co", "COMPRESS=" + compression.toUpperCase()));
+        if (predictor > 1 && (compression.equals("deflate") || compression.equals("lzw")))
+            options.addAll(Arrays.asList("-co", "PREDICTOR=" + predictor));
+        options.addAll(Arrays.asList("-co", "BIGTIFF=IF_SAFER"));
+        return options;
+    }
+
+    /**
+     * 生成内部金字塔，逐级减半直到一层可以放进一个块
+     */
+    private boolean buildOverviews(String source, String tiffPath, int started){
+        Dataset dataset = gdal.Open(tiffPath, gdalconstConstants.GA_Update);
+        if (dataset == null){
+            log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
+            log.error(gdal.GetLastErrorMsg());
+            return false;
+        }
+        try {
+            int size = Math.max(dataset.getRasterXSize(), dataset.getRasterYSize());
+            List<Integer> factors = new ArrayList<Integer>();
+            //上一层仍大于一个块时继续增加一层
+            for (int factor = 2; size > (long) blockSize * (factor / 2); factor *= 2)
+                factors.add(factor);
+            if (factors.isEmpty())
+                return true;
+            int[] levels = new int[factors.size()];
+            for (int i = 0; i < levels.length; i++)
+                levels[i] = factors.get(i);
+            if (dataset.BuildOverviews(OverviewReader.toGDALResampling(overviewResampling), levels,
+                    new Progress(source, 0.4, 0.3, started)) != gdalconstConstants.CE_None){
+                log.error("生成金字塔失败: " + gdal.GetLastErrorMsg());
+                return false;
+            }
+            return true;
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    /**
+     * 启动外部进程，标准错误合并到标准输出，避免两个管道之一写满时相互等待；
+     * 输出由单独的线程读取，gdal_translate的进度不换行，取消状态在等待进程时定期检查
+     */
+    private boolean runCommand(String[] cmd, int started){
         Process process = null;
-        BufferedReader stderrReader, stdoutReader;
+        Thread output = null;
         try {
-            Runtime runtime = Runtime.getRuntime();
-            process = runtime.exec(cmd);
-            stderrReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            stdoutReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            String line;
-            while ((line = stdoutReader.readLine()) != null)
-                log.info(line);
-            while ((line = stderrReader.readLine()) != null)
-                log.error(line);
-
-            int exitValue = process.waitFor();
-            if (exitValue != 0){
-                log.error("gdal_translate命令执行失败.");
+            process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            output = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null){
+                            log.info(line);
+                        }
+                    } catch (IOException e) {
+                        //进程被销毁时管道关闭
+                        log.debug(e.getMessage());
+                    }
+                }
+            }, cmd[0] + "-output");
+            output.setDaemon(true);
+            output.start();
+
+            while (!process.waitFor(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)){
+                if (isCancelled(started)){
+                    log.warn(cmd[0] + "已取消.");
+                    return false;
+                }
+            }
+            output.join(CANCEL_POLL_MILLIS);
+            if (process.exitValue() != 0){
+                log.error(cmd[0] + "命令执行失败.");
                 return false;
             }
         } catch (IOException e) {
             log.error(e.getMessage(), e);
             return false;
         } catch (InterruptedException e) {
-            log.error(e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            log.error(cmd[0] + "被中断.");
             return false;
         }  finally {
-            if (process != null)
-                process.destroy();
+            if (process != null && process.isAlive())
+                process.destroyForcibly();
         }
         return true;
     }
 
+    private boolean isCancelled(int started){
+        return generation.get() != started;
+    }
+
+    /**
+     * 将GDAL的进度回调转给ProgressListener，返回0时GDAL中止当前操作
+     */
+    private class Progress extends ProgressCallback {
+        private final String source;
+        private final double base;
+        private final double weight;
+        private final int started;
+        private boolean aborted = false;
+
+        Progress(String source, double base, double weight, int started){
+            this.source = source;
+            this.base = base;
+            this.weight = weight;
+            this.started = started;
+        }
+
+        @Override
+        public int run(double complete, String message){
+            ProgressListener current = listener;
+            if (isCancelled(started) || (current != null && !current.onProgress(source, base + weight * complete)))
+                aborted = true;
+            return aborted ? 0 : 1;
+        }
+    }
+
     public static void main(String[] args){
         GDALTranslate gdaltrans = new GDALTranslate();
         gdaltrans.image2GTiff("C:\\data\\WRJ_430124102214_20170918_DOM.img",
@@ -0,0 +1,504 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 线程安全的HDFS客户端，按URI缓存FileSystem并提供异步和批量操作，同一defaultFS在进程内共享一个实例
+ * 共享实例被多处持有，close()不关闭它，进程退出前调用shutdown()统一关闭
+ */
+
+package ai.geodata;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HDFSClient implements Closeable {
+    protected static Logger log = Logger.getLogger(HDFSClient.class);
+
+    //异步操作的默认线程数
+    private static final int DEFAULT_THREADS = 8;
+
+    private static final ConcurrentHashMap<String, HDFSClient> instances = new ConcurrentHashMap<String, HDFSClient>();
+    //共享实例创建后，调用方传入的配置只比较这些影响文件系统连接和写入的配置项
+    private static final String[] FS_KEYS = {"dfs.nameservices", "dfs.client.failover.proxy.provider",
+            "dfs.replication", "dfs.blocksize", "dfs.client.use.datanode.hostname", "io.file.buffer.size",
+            "fs.permissions.umask-mode", "hadoop.security.authentication", "hadoop.rpc.protection"};
+    //已比较过的配置，每个Configuration对象只比较一次
+    private static final Map<Configuration, Boolean> checked =
+            Collections.synchronizedMap(new WeakHashMap<Configuration, Boolean>());
+
+    private final Configuration conf;
+    private final String defaultFS;
+    private final int threads;
+    //由getInstance创建的共享实例
+    private final boolean shared;
+    //共享实例创建时调用方传入的配置，同一对象无需比较
+    private final Configuration source;
+    //scheme://authority -> FileSystem
+    private final ConcurrentHashMap<String, FileSystem> fileSystems = new ConcurrentHashMap<String, FileSystem>();
+    private volatile ExecutorService executor;
+    private volatile boolean closed = false;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @return 使用application.yaml中defaultFS的共享客户端
+     */
+    public static HDFSClient getInstance() {
+        return getInstance(new ai.geodata.conf.Configuration().get("defaultFS"));
+    }
+
+    /**
+     * @param defaultFS 默认文件系统，如hdfs://namenode:8020，测试时可使用file:///
+     * @return 该defaultFS的共享客户端
+     */
+    public static HDFSClient getInstance(String defaultFS) {
+        HDFSClient client = defaultFS == null ? null : instances.get(defaultFS);
+        if (client != null && !client.closed) {
+            return client;
+        }
+        Configuration conf = new Configuration();
+        if (defaultFS != null) {
+            conf.set("fs.defaultFS", defaultFS);
+        }
+        return getInstance(conf);
+    }
+
+    /**
+     * @param conf Hadoop配置，按其fs.defaultFS共享，首次创建时使用该配置；
+     *             与已有实例的配置不同时记录警告，需要不同配置时请用构造函数创建独立客户端
+     * @return 共享客户端
+     */
+    public static HDFSClient getInstance(Configuration conf) {
+        String defaultFS = conf.get("fs.defaultFS", "file:///");
+        HDFSClient client = instances.get(defaultFS);
+        if (client != null && !client.closed) {
+            warnIfDiffers(client, conf);
+            return client;
+        }
+        while (client == null || client.closed) {
+            HDFSClient created = new HDFSClient(new Configuration(conf), DEFAULT_THREADS, conf);
+            if (client == null ? instances.putIfAbsent(defaultFS, created) == null
+                    : instances.replace(defaultFS, client, created)) {
+                client = created;
+            } else {
+                client = instances.get(defaultFS);
+                if (client != null && !client.closed) {
+                    warnIfDiffers(client, conf);
+                }
+            }
+        }
+        return client;
+    }
+
+    private static void warnIfDiffers(HDFSClient client, Configuration conf) {
+        if (conf == client.source || checked.put(conf, Boolean.TRUE) != null) {
+            return;
+        }
+        for (String key : FS_KEYS) {
+            String value = conf.get(key);
+            String shared = client.conf.get(key);
+            if (value == null ? shared != null : !value.equals(shared)) {
+                log.warn(client.defaultFS + "的共享客户端已按先前的配置创建，忽略配置项" + key + "=" + value);
+            }
+        }
+    }
+
+    /**
+     * 关闭全部共享客户端，之后getInstance会重新创建
+     */
+    public static void shutdown() {
+        for (HDFSClient client : instances.values()) {
+            client.release();
+        }
+    }
+
+    /**
+     * 独立的客户端，由调用方负责close
+     * @param conf Hadoop配置
+     * @param threads 异步操作的线程数
+     */
+    public HDFSClient(Configuration conf, int threads) {
+        this(conf, threads, null);
+    }
+
+    /**
+     * @param source 共享实例的调用方配置，独立客户端为null
+     */
+    private HDFSClient(Configuration conf, int threads, Configuration source) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.conf = conf;
+        this.defaultFS = conf.get("fs.defaultFS", "file:///");
+        this.threads = threads;
+        this.shared = source != null;
+        this.source = source;
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * 返回路径所在的FileSystem，同一scheme和authority只创建一次
+     */
+    public FileSystem getFileSystem(Path path) throws IOException {
+        URI uri = path.toUri();
+        if (uri.getScheme() == null) {
+            uri = URI.create(defaultFS);
+        }
+        return getFileSystem(uri);
+    }
+
+    public FileSystem getFileSystem(URI uri) throws IOException {
+        ensureOpen();
+        String key = uri.getScheme() + "://" + (uri.getAuthority() == null ? "" : uri.getAuthority());
+        FileSystem fs = fileSystems.get(key);
+        if (fs != null) {
+            reused.incrementAndGet();
+            return fs;
+        }
+        synchronized (fileSystems) {
+            fs = fileSystems.get(key);
+            if (fs != null) {
+                reused.incrementAndGet();
+                return fs;
+            }
+            //使用newInstance而不是get，避免其他代码关闭Hadoop全局缓存中的同一实例
+            fs = FileSystem.newInstance(URI.create(key + "/"), conf);
+            fileSystems.put(key, fs);
+            created.incrementAndGet();
+            log.info("连接文件系统: " + key);
+            return fs;
+        }
+    }
+
+    public boolean mkdirs(String path) throws IOException {
+        operations.incrementAndGet();
+        Path p = new Path(path);
+        return getFileSystem(p).mkdirs(p);
+    }
+
+    public boolean exists(String path) throws IOException {
+        operations.incrementAndGet();
+        Path p = new Path(path);
+        return getFileSystem(p).exists(p);
+    }
+
+    public boolean delete(String path, boolean recursive) throws IOException {
+        operations.incrementAndGet();
+        Path p = new Path(path);
+        return getFileSystem(p).delete(p, recursive);
+    }
+
+    /**
+     * 上传本地文件
+     * @param overwrite 目标已存在时是否覆盖
+     */
+    public boolean put(String localPath, String remotePath, boolean overwrite) throws IOException {
+        operations.incrementAndGet();
+        Path dst = new Path(remotePath);
+        FileSystem fs = getFileSystem(dst);
+        if (!overwrite && fs.exists(dst)) {
+            return false;
+        }
+        fs.copyFromLocalFile(false, overwrite, new Path(localPath), dst);
+        return true;
+    }
+
+    /**
+     * 下载到本地文件
+     */
+    public boolean get(String remotePath, String localPath) throws IOException {
+        operations.incrementAndGet();
+        Path src = new Path(remotePath);
+        getFileSystem(src).copyToLocalFile(false, src, new Path(localPath), true);
+        return true;
+    }
+
+    public Future<Boolean> mkdirsAsync(final String path) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return mkdirs(path);
+            }
+        });
+    }
+
+    public Future<Boolean> existsAsync(final String path) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return exists(path);
+            }
+        });
+    }
+
+    public Future<Boolean> deleteAsync(final String path, final boolean recursive) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return delete(path, recursive);
+            }
+        });
+    }
+
+    public Future<Boolean> putAsync(final String localPath, final String remotePath, final boolean overwrite) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return put(localPath, remotePath, overwrite);
+            }
+        });
+    }
+
+    public Future<Boolean> getAsync(final String remotePath, final String localPath) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return get(remotePath, localPath);
+            }
+        });
+    }
+
+    /**
+     * 批量创建目录
+     * @return 与paths一一对应的结果，出错的为false
+     */
+    public List<Boolean> mkdirsAll(List<String> paths) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(paths.size());
+        for (String path : paths) {
+            futures.add(mkdirsAsync(path));
+        }
+        return await(futures);
+    }
+
+    /**
+     * 批量判断路径是否存在
+     * @return 与paths一一对应的结果，出错的为false
+     */
+    public List<Boolean> existsAll(List<String> paths) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(paths.size());
+        for (String path : paths) {
+            futures.add(existsAsync(path));
+        }
+        return await(futures);
+    }
+
+    /**
+     * 批量删除
+     * @return 与paths一一对应的结果，出错的为false
+     */
+    public List<Boolean> deleteAll(List<String> paths, boolean recursive) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(paths.size());
+        for (String path : paths) {
+            futures.add(deleteAsync(path, recursive));
+        }
+        return await(futures);
+    }
+
+    /**
+     * 批量上传，localPaths与remotePaths一一对应
+     * @return 与localPaths一一对应的结果，出错的为false
+     */
+    public List<Boolean> putAll(List<String> localPaths, List<String> remotePaths, boolean overwrite) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(localPaths.size());
+        for (int i = 0; i < localPaths.size(); i++) {
+            futures.add(putAsync(localPaths.get(i), remotePaths.get(i), overwrite));
+        }
+        return await(futures);
+    }
+
+    /**
+     * 批量下载，remotePaths与localPaths一一对应
+     * @return 与remotePaths一一对应的结果，出错的为false
+     */
+    public List<Boolean> getAll(List<String> remotePaths, List<String> localPaths) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(remotePaths.size());
+        for (int i = 0; i < remotePaths.size(); i++) {
+            futures.add(getAsync(remotePaths.get(i), localPaths.get(i)));
+        }
+        return await(futures);
+    }
+
+    /**
+     * @return 连接复用等统计
+     */
+    public Metrics getMetrics() {
+        return new Metrics(created.get(), reused.get(), operations.get(), failures.get(), fileSystems.size());
+    }
+
+    /**
+     * 关闭缓存的FileSystem和异步线程池；共享实例仍被其他调用方使用，不关闭，由shutdown()统一关闭
+     */
+    @Override
+    public void close() {
+        if (shared) {
+            log.debug("共享的HDFS客户端由shutdown()关闭: " + defaultFS);
+            return;
+        }
+        release();
+    }
+
+    private synchronized void release() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        instances.remove(defaultFS, this);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (fileSystems) {
+            for (FileSystem fs : fileSystems.values()) {
+                try {
+                    fs.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+            fileSystems.clear();
+        }
+        log.info("关闭HDFS客户端: " + getMetrics());
+    }
+
+    private <T> Future<T> submit(final Callable<T> task) {
+        return executor().submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private List<Boolean> await(List<Future<Boolean>> futures) {
+        List<Boolean> results = new ArrayList<Boolean>(futures.size());
+        for (Future<Boolean> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                log.error(e.getCause().getMessage(), e.getCause());
+                results.add(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(false);
+            }
+        }
+        return results;
+    }
+
+    private ExecutorService executor() {
+        ensureOpen();
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    final AtomicInteger count = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "hdfs-client-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("HDFSClient is closed");
+        }
+    }
+
+    /**
+     * 客户端统计
+     */
+    public static class Metrics {
+        private final long created;
+        private final long reused;
+        private final long operations;
+        private final long failures;
+        private final int open;
+
+        public Metrics(long created, long reused, long operations, long failures, int open) {
+            this.created = created;
+            this.reused = reused;
+            this.operations = operations;
+            this.failures = failures;
+            this.open = open;
+        }
+
+        /**
+         * @return 新建的FileSystem连接数
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return 复用已有连接的次数
+         */
+        public long getReused() {
+            return reused;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return 当前缓存的FileSystem数
+         */
+        public int getOpen() {
+            return open;
+        }
+
+        /**
+         * @return 连接复用率
+         */
+        public double getReuseRatio() {
+            long total = created + reused;
+            return total == 0 ? 0 : (double) reused / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("连接 新建%d 复用%d (%.1f%%), 当前%d, 操作%d, 失败%d",
+                    created, reused, getReuseRatio() * 100, open, operations, failures);
+        }
+    }
+}
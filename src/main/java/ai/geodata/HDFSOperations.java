@@ -1,57 +1,814 @@
 package ai.geodata;
 
+import ai.geodata.common.TransferJournal;
+import ai.geodata.common.TransferReport;
+import ai.geodata.common.TransferResult;
+import ai.geodata.common.ZipExtractor;
+import ai.geodata.common.ZipPackager;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.log4j.Logger;
 
 import java.io.*;
-import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 public class HDFSOperations {
     protected Logger log = Logger.getLogger(GDAL2GDB.class);
-    private Configuration conf = new Configuration();
-    private ai.geodata.conf.Configuration rsconf = new ai.geodata.conf.Configuration();
-    private String defaultFS;
+    //单个文件传输时的读写缓冲区大小
+    private static final int TRANSFER_BUFFER_SIZE = 4 * 1024 * 1024;
+    //分块传输时未完成文件的后缀
+    private static final String PART_SUFFIX = ".part";
+    //并行下载时每个分段的最小长度
+    private static final long MIN_RANGE_SIZE = 8L * 1024 * 1024;
+    //等待HDFS租约恢复的最长时间
+    private static final long LEASE_RECOVERY_MILLIS = 60 * 1000;
+    //分块传输重试前的等待时间，每次加倍，不超过上限
+    private static final long RETRY_BASE_MILLIS = 1000;
+    private static final long RETRY_MAX_MILLIS = 30 * 1000;
+
+    //分块传输的块大小、日志目录和出错后的重试次数
+    private int chunkSize = 64 * 1024 * 1024;
+    private File journalDir = new File(System.getProperty("java.io.tmpdir"), "rsdata-transfer");
+    private int maxRetries = 3;
+
+    //同一defaultFS的HDFSOperations共享一个客户端及其FileSystem连接
+    private final HDFSClient client;
+    private final Configuration conf;
     public HDFSOperations(){
-        defaultFS = rsconf.get("defaultFS");
-        conf.set("fs.defaultFS", defaultFS);
+        this(new ai.geodata.conf.Configuration().get("defaultFS"));
+    }
+
+    /**
+     * @param defaultFS 默认文件系统，如hdfs://namenode:8020，测试时可使用file:///
+     */
+    public HDFSOperations(String defaultFS){
+        this(HDFSClient.getInstance(defaultFS));
+    }
+
+    /**
+     * @param client 共享的HDFS客户端
+     */
+    public HDFSOperations(HDFSClient client){
+        this.client = client;
+        this.conf = client.getConf();
+    }
+
+    /**
+     * @param chunkSize 分块传输的块大小，每个块写入后确认一次，默认64MB
+     */
+    public void setChunkSize(int chunkSize){
+        if (chunkSize < TRANSFER_BUFFER_SIZE || chunkSize % TRANSFER_BUFFER_SIZE != 0){
+            throw new IllegalArgumentException("chunkSize must be a positive multiple of " + TRANSFER_BUFFER_SIZE);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param journalDir 分块传输日志的本地目录，默认为系统临时目录下的rsdata-transfer
+     */
+    public void setJournalDir(String journalDir){
+        this.journalDir = new File(journalDir);
+    }
+
+    /**
+     * @param maxRetries 分块传输出错后在同一次调用内从断点重试的次数，默认3
+     */
+    public void setMaxRetries(int maxRetries){
+        this.maxRetries = maxRetries;
     }
 
     public boolean putToHDFS(String localFilePath , String hdfsURL){
-        InputStream inputLocal = null; //本地文件输入流
-        OutputStream outHDFS = null; //HDFS输出流
+        TransferResult result = upload(new File(localFilePath), new Path(hdfsURL));
+        if (!result.isSuccess()){
+            log.error(result.getError());
+            return false;
+        }
+        log.info(localFilePath + "上传成功, " + String.format("%.2f MB/s", result.getMBPerSecond()));
+        return true;
+    }
+
+    /**
+     * 并行上传本地目录下的全部文件，保持相对路径
+     * @param localDir 本地目录
+     * @param hdfsDir 目标目录，没有scheme时使用defaultFS，也可以是file://路径
+     * @param threads 同时上传的文件数
+     * @return 每个文件的结果及整体速度
+     */
+    public TransferReport putDirToHDFS(String localDir, String hdfsDir, int threads){
+        File root = new File(localDir);
+        List<File> files = new ArrayList<File>();
+        listFiles(root, files);
+        List<String> targets = new ArrayList<String>(files.size());
+        String rootPath = root.getAbsolutePath();
+        for (File file : files){
+            String relative = file.getAbsolutePath().substring(rootPath.length()).replace(File.separatorChar, '/');
+            targets.add(hdfsDir + (relative.startsWith("/") ? relative : "/" + relative));
+        }
+        return putAllToHDFS(files, targets, threads);
+    }
+
+    /**
+     * 并行上传多个文件到同一目录
+     * @param localFiles 本地文件
+     * @param hdfsDir 目标目录
+     * @param threads 同时上传的文件数
+     * @return 每个文件的结果及整体速度
+     */
+    public TransferReport putAllToHDFS(List<String> localFiles, String hdfsDir, int threads){
+        List<File> files = new ArrayList<File>(localFiles.size());
+        List<String> targets = new ArrayList<String>(localFiles.size());
+        for (String localFile : localFiles){
+            File file = new File(localFile);
+            files.add(file);
+            targets.add(hdfsDir + "/" + file.getName());
+        }
+        return putAllToHDFS(files, targets, threads);
+    }
+
+    private TransferReport putAllToHDFS(final List<File> files, final List<String> targets, int threads){
+        if (threads < 1){
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())));
+        long start = System.nanoTime();
+        List<Future<TransferResult>> futures = new ArrayList<Future<TransferResult>>(files.size());
         try {
-            inputLocal = new BufferedInputStream(new FileInputStream(localFilePath));
-            if (inputLocal == null){
-                log.error(localFilePath + "不存在.");
-                return false;
+            for (int i = 0; i < files.size(); i++){
+                final File file = files.get(i);
+                final Path target = new Path(targets.get(i));
+                futures.add(pool.submit(new Callable<TransferResult>() {
+                    @Override
+                    public TransferResult call() {
+                        return upload(file, target);
+                    }
+                }));
+            }
+
+            List<TransferResult> results = new ArrayList<TransferResult>(files.size());
+            for (int i = 0; i < futures.size(); i++){
+                try {
+                    TransferResult result = futures.get(i).get();
+                    if (result.isSuccess()){
+                        log.info(result);
+                    }else{
+                        log.error(result);
+                    }
+                    results.add(result);
+                }catch (ExecutionException e){
+                    log.error(e.getMessage(), e);
+                    results.add(new TransferResult(files.get(i).getPath(), targets.get(i), false, 0, 0,
+                            String.valueOf(e.getCause())));
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    log.error("批量上传被中断.");
+                    break;
+                }
             }
-            //获取HDFS文件系统
-            FileSystem hdfs = FileSystem.get(URI.create(defaultFS),conf);
-            if (hdfs.exists(new Path(hdfsURL))){
-                log.error(hdfsURL + "已经存在.");
-                return false;
+            TransferReport report = new TransferReport(results, (System.nanoTime() - start) / 1000000);
+            log.info(report);
+            return report;
+        }finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 将本地目录多线程压缩后直接写入HDFS，不在本地生成ZIP文件
+     * @param localDir 本地目录
+     * @param hdfsURL 目标ZIP文件，已存在时覆盖
+     * @param threads 压缩线程数
+     * @return 是否成功
+     */
+    public boolean zipToHDFS(String localDir, String hdfsURL, int threads){
+        long start = System.nanoTime();
+        Path target = new Path(hdfsURL);
+        FSDataOutputStream outHDFS = null;
+        try {
+            FileSystem fs = client.getFileSystem(target);
+            outHDFS = fs.create(target, true);
+            long bytes = new ZipPackager(threads).pack(localDir, outHDFS, true);
+            outHDFS.close();
+            outHDFS = null;
+            log.info(localDir + "压缩上传成功, " + bytes + "字节, 耗时"
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+            return true;
+        } catch (IOException e) {
+            log.error("压缩上传" + localDir + "失败: " + e.getMessage(), e);
+            IOUtils.closeStream(outHDFS);
+            try {
+                client.getFileSystem(target).delete(target, false);
+            } catch (IOException ex) {
+                log.warn(ex.getMessage());
             }
+            return false;
+        }
+    }
+
+    /**
+     * 多线程解压ZIP，ZIP和目标目录都可以在HDFS或本地(file://)，只读取中央目录和选中的文件
+     * @param zipURL ZIP文件
+     * @param targetDir 解压目录，已存在的文件被覆盖
+     * @param glob 通配符，如tiles/**或*.tif；null时解压全部
+     * @param threads 同时解压的文件数
+     * @return 每个文件的结果，ZIP无法读取时返回null
+     */
+    public TransferReport unzip(String zipURL, final String targetDir, String glob, int threads){
+        final Path zipPath = new Path(zipURL);
+        ZipExtractor extractor = null;
+        try {
+            final FileSystem zipFs = client.getFileSystem(zipPath);
+            final FileSystem targetFs = client.getFileSystem(new Path(targetDir));
+            final long length = zipFs.getFileStatus(zipPath).getLen();
+            final FSDataInputStream in = zipFs.open(zipPath);
+            extractor = new ZipExtractor(new ZipExtractor.Source() {
+                @Override
+                public long length() {
+                    return length;
+                }
+
+                @Override
+                public void readFully(long position, byte[] buffer, int offset, int len) throws IOException {
+                    in.readFully(position, buffer, offset, len);
+                }
+
+                @Override
+                public void close() {
+                    IOUtils.closeStream(in);
+                }
+            });
+            return extractor.extract(new ZipExtractor.Target() {
+                @Override
+                public OutputStream create(String name) throws IOException {
+                    return targetFs.create(new Path(targetDir, name), true);
+                }
 
-            outHDFS = hdfs.create(new Path(hdfsURL));
-            IOUtils.copyBytes(inputLocal,outHDFS,4096,true);
-            log.info(localFilePath + "上传成功.");
+                @Override
+                public void mkdirs(String name) throws IOException {
+                    targetFs.mkdirs(new Path(targetDir, name));
+                }
+            }, glob, threads);
+        } catch (IOException e) {
+            log.error("解压" + zipURL + "失败: " + e.getMessage(), e);
+            return null;
+        } finally {
+            IOUtils.closeStream(extractor);
+        }
+    }
+
+    /**
+     * 通过FileChannel按大块读取本地文件并写入目标文件系统，目标已存在时失败，传输失败时删除写了一半的目标
+     */
+    private TransferResult upload(File localFile, Path target){
+        long start = System.nanoTime();
+        if (!localFile.isFile()){
+            return new TransferResult(localFile.getPath(), target.toString(), false, 0, 0,
+                    localFile.getPath() + "不存在.");
+        }
+        FileChannel channel = null;
+        FSDataOutputStream outHDFS = null;
+        FileSystem fs = null;
+        boolean created = false;
+        long bytes = 0;
+        try {
+            fs = client.getFileSystem(target);
+            if (fs.exists(target)){
+                return new TransferResult(localFile.getPath(), target.toString(), false, 0, 0,
+                        target + "已经存在.");
+            }
+            channel = new FileInputStream(localFile).getChannel();
+            outHDFS = fs.create(target, false, TRANSFER_BUFFER_SIZE);
+            created = true;
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            int n;
+            while ((n = channel.read(buffer)) >= 0){
+                outHDFS.write(buffer.array(), 0, n);
+                bytes += n;
+                buffer.clear();
+            }
+            outHDFS.close();
+            outHDFS = null;
         }catch (IOException e){
-            IOUtils.closeStream(inputLocal);
+            log.error(e.getMessage(), e);
+            if (created){
+                //删除写了一半的目标，否则重试时会因目标已存在而失败
+                IOUtils.closeStream(outHDFS);
+                outHDFS = null;
+                try {
+                    fs.delete(target, false);
+                }catch (IOException ex){
+                    log.warn("删除" + target + "失败: " + ex.getMessage());
+                }
+            }
+            return new TransferResult(localFile.getPath(), target.toString(), false, bytes,
+                    (System.nanoTime() - start) / 1000000, e.getMessage());
+        }finally {
+            IOUtils.closeStream(channel);
             IOUtils.closeStream(outHDFS);
+        }
+        return new TransferResult(localFile.getPath(), target.toString(), true, bytes,
+                (System.nanoTime() - start) / 1000000, null);
+    }
+
+    /**
+     * 分块上传：先写入目标旁的.part临时文件，每写完一块刷新到DataNode并在本地日志中记录块的CRC；
+     * 中断后再次调用时校验最后一个已确认的块，截去其后的数据并从该处追加；全部完成后原子重命名为目标
+     * @param localFilePath 本地文件
+     * @param hdfsURL 目标路径
+     * @param overwrite 目标已存在时是否覆盖
+     * @return 传输结果，字节数为本次调用实际传输的数据量
+     */
+    public TransferResult putToHDFSResumable(String localFilePath, String hdfsURL, boolean overwrite){
+        long start = System.nanoTime();
+        File localFile = new File(localFilePath);
+        Path target = new Path(hdfsURL);
+        long[] transferred = new long[1];
+        String error = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++){
+            try {
+                error = resumeUpload(localFile, target, overwrite, transferred);
+                break;
+            }catch (IOException e){
+                log.warn("上传中断(" + (attempt + 1) + "/" + (maxRetries + 1) + "): " + e.getMessage());
+                error = e.getMessage();
+                if (!isRetriable(e) || (attempt < maxRetries && !backoff(attempt))){
+                    break;
+                }
+            }
+        }
+        TransferResult result = new TransferResult(localFilePath, hdfsURL, error == null, transferred[0],
+                (System.nanoTime() - start) / 1000000, error);
+        log.info(result);
+        return result;
+    }
+
+    /**
+     * @return 失败原因，成功时返回null
+     */
+    private String resumeUpload(File localFile, Path target, boolean overwrite, long[] transferred) throws IOException{
+        if (!localFile.isFile()){
+            return localFile.getPath() + "不存在.";
+        }
+        FileSystem fs = client.getFileSystem(target);
+        if (fs instanceof LocalFileSystem){
+            //本地文件系统的校验和包装不支持截断和追加，块的CRC已由日志记录
+            fs = ((LocalFileSystem) fs).getRawFileSystem();
+        }
+        if (!overwrite && fs.exists(target)){
+            return target + "已经存在.";
+        }
+        Path temp = new Path(target.getParent(), target.getName() + PART_SUFFIX);
+        TransferJournal journal = TransferJournal.open(journalFile(localFile.getAbsolutePath(), target.toString()),
+                localFile.getAbsolutePath(), target.toString(), localFile.length(), localFile.lastModified(), chunkSize);
+        FileChannel channel = null;
+        FSDataOutputStream out = null;
+        try {
+            long offset = journal.getAcknowledged();
+            if (offset > 0 && fs.exists(temp)){
+                recoverLease(fs, temp);
+                long length = fs.getFileStatus(temp).getLen();
+                offset = journal.truncateTo(length);
+                if (offset > 0 && !verifyLastChunk(journal, fs, temp)){
+                    log.warn(temp + "最后一块校验失败，重新上传.");
+                    offset = 0;
+                }
+                if (offset > 0 && length > offset && !truncate(fs, temp, offset)){
+                    offset = 0;
+                }
+            }else{
+                offset = 0;
+            }
+            if (offset == 0){
+                journal.truncate(0);
+                out = fs.create(temp, true, TRANSFER_BUFFER_SIZE);
+            }else{
+                log.info(localFile + "从" + offset + "字节处续传.");
+                out = fs.append(temp, TRANSFER_BUFFER_SIZE);
+            }
+
+            channel = new FileInputStream(localFile).getChannel();
+            channel.position(offset);
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            long chunkLength = 0;
+            int n;
+            //每次读取不跨越块边界，读取不足时下一次补齐，保证块恰好在chunkSize处确认
+            buffer.limit(Math.min(buffer.capacity(), chunkSize));
+            while ((n = channel.read(buffer)) >= 0){
+                out.write(buffer.array(), 0, n);
+                crc.update(buffer.array(), 0, n);
+                chunkLength += n;
+                transferred[0] += n;
+                if (chunkLength == chunkSize){
+                    out.hsync();
+                    journal.acknowledge(chunkSize, crc.getValue());
+                    crc.reset();
+                    chunkLength = 0;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), chunkSize - chunkLength));
+            }
+            if (chunkLength > 0){
+                out.hsync();
+                journal.acknowledge((int) chunkLength, crc.getValue());
+            }
+            out.close();
+            out = null;
+
+            FileContext.getFileContext(target.toUri(), conf).rename(temp, target,
+                    overwrite ? Options.Rename.OVERWRITE : Options.Rename.NONE);
+            journal.delete();
+            return null;
+        }finally {
+            IOUtils.closeStream(channel);
+            IOUtils.closeStream(out);
+            journal.close();
+        }
+    }
+
+    /**
+     * 分块下载：按块用定位读取HDFS文件，写入本地.part临时文件，每写完一块落盘并记录CRC；
+     * 中断后再次调用时从最后一个完好的块继续；全部完成后原子重命名为目标
+     * @param hdfsURL HDFS文件
+     * @param localFilePath 本地文件
+     * @param overwrite 本地文件已存在时是否覆盖
+     * @return 传输结果，字节数为本次调用实际传输的数据量
+     */
+    public TransferResult getFromHDFSResumable(String hdfsURL, String localFilePath, boolean overwrite){
+        long start = System.nanoTime();
+        long[] transferred = new long[1];
+        String error = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++){
+            try {
+                error = resumeDownload(new Path(hdfsURL), new File(localFilePath), overwrite, transferred);
+                break;
+            }catch (IOException e){
+                log.warn("下载中断(" + (attempt + 1) + "/" + (maxRetries + 1) + "): " + e.getMessage());
+                error = e.getMessage();
+                if (!isRetriable(e) || (attempt < maxRetries && !backoff(attempt))){
+                    break;
+                }
+            }
+        }
+        TransferResult result = new TransferResult(hdfsURL, localFilePath, error == null, transferred[0],
+                (System.nanoTime() - start) / 1000000, error);
+        log.info(result);
+        return result;
+    }
+
+    /**
+     * @return 文件不存在、目标已存在或没有权限等重试也不会成功的错误返回false
+     */
+    private static boolean isRetriable(IOException e){
+        return !(e instanceof FileNotFoundException || e instanceof FileAlreadyExistsException
+                || e instanceof AccessControlException || e instanceof java.nio.file.FileAlreadyExistsException
+                || e instanceof java.nio.file.NoSuchFileException || e instanceof java.nio.file.AccessDeniedException);
+    }
+
+    /**
+     * 重试前等待，租约恢复或NameNode切换期间立即重试一般仍会失败
+     * @return 等待期间被中断时返回false，不再重试
+     */
+    private boolean backoff(int attempt){
+        long millis = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt, 16));
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("重试等待被中断.");
+            return false;
+        }
+    }
+
+    private String resumeDownload(Path source, File localFile, boolean overwrite, long[] transferred) throws IOException{
+        if (!overwrite && localFile.exists()){
+            return localFile + "已经存在.";
+        }
+        FileSystem fs = client.getFileSystem(source);
+        FileStatus status = fs.getFileStatus(source);
+        File temp = new File(localFile.getPath() + PART_SUFFIX);
+        TransferJournal journal = TransferJournal.open(journalFile(source.toString(), localFile.getAbsolutePath()),
+                source.toString(), localFile.getAbsolutePath(), status.getLen(), status.getModificationTime(), chunkSize);
+        RandomAccessFile raf = null;
+        FSDataInputStream in = null;
+        try {
+            raf = new RandomAccessFile(temp, "rw");
+            FileChannel channel = raf.getChannel();
+            long offset = journal.truncateTo(raf.length());
+            if (offset > 0){
+                int last = journal.getChunks() - 1;
+                long lastOffset = offset - journal.getLength(last);
+                if (crc(channel, lastOffset, journal.getLength(last)) != journal.getCrc(last)){
+                    log.warn(temp + "最后一块校验失败，重新下载.");
+                    journal.truncate(0);
+                    offset = 0;
+                }else{
+                    log.info(source + "从" + offset + "字节处续传.");
+                }
+            }
+            raf.setLength(offset);
+
+            in = fs.open(source, TRANSFER_BUFFER_SIZE);
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            long length = status.getLen();
+            while (offset < length){
+                int chunkLength = (int) Math.min(chunkSize, length - offset);
+                crc.reset();
+                for (int done = 0; done < chunkLength; ){
+                    int n = Math.min(buffer.length, chunkLength - done);
+                    in.readFully(offset + done, buffer, 0, n);
+                    crc.update(buffer, 0, n);
+                    writeFully(channel, ByteBuffer.wrap(buffer, 0, n), offset + done);
+                    done += n;
+                    transferred[0] += n;
+                }
+                channel.force(false);
+                journal.acknowledge(chunkLength, crc.getValue());
+                offset += chunkLength;
+            }
+            raf.close();
+            raf = null;
+
+            try {
+                Files.move(temp.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }catch (AtomicMoveNotSupportedException e){
+                Files.move(temp.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            journal.delete();
+            return null;
+        }finally {
+            IOUtils.closeStream(in);
+            IOUtils.closeStream(raf);
+            journal.close();
+        }
+    }
+
+    /**
+     * 并行下载：按HDFS块边界将文件分段，块数少于线程数时再均分块，
+     * 每个线程打开各自的输入流做定位读取，直接写入预先分配好大小的本地文件的对应位置，
+     * 全部完成后原子重命名为目标
+     * @param hdfsURL HDFS文件
+     * @param localFilePath 本地文件
+     * @param threads 同时读取的分段数
+     * @return 传输结果
+     */
+    public TransferResult getFromHDFSParallel(final String hdfsURL, String localFilePath, int threads){
+        if (threads < 1){
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        long start = System.nanoTime();
+        File localFile = new File(localFilePath);
+        File temp = new File(localFilePath + PART_SUFFIX);
+        RandomAccessFile raf = null;
+        ExecutorService pool = null;
+        long bytes = 0;
+        String error = null;
+        try {
+            final Path source = new Path(hdfsURL);
+            final FileSystem fs = client.getFileSystem(source);
+            FileStatus status = fs.getFileStatus(source);
+            List<long[]> ranges = splitRanges(fs.getFileBlockLocations(status, 0, status.getLen()),
+                    status.getLen(), threads);
+
+            raf = new RandomAccessFile(temp, "rw");
+            raf.setLength(status.getLen());
+            final FileChannel channel = raf.getChannel();
+            pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, ranges.size())));
+            List<Future<Long>> futures = new ArrayList<Future<Long>>(ranges.size());
+            for (final long[] range : ranges){
+                futures.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return readRange(fs, source, range[0], range[1], channel);
+                    }
+                }));
+            }
+            for (Future<Long> future : futures){
+                bytes += future.get();
+            }
+            raf.close();
+            raf = null;
+            try {
+                Files.move(temp.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }catch (AtomicMoveNotSupportedException e){
+                Files.move(temp.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.info(hdfsURL + "分" + ranges.size() + "段下载成功.");
+        }catch (IOException e){
             log.error(e.getMessage(), e);
+            error = e.getMessage();
+        }catch (ExecutionException e){
+            log.error(e.getCause().getMessage(), e.getCause());
+            error = String.valueOf(e.getCause().getMessage());
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            error = "下载被中断.";
+        }finally {
+            if (pool != null){
+                pool.shutdownNow();
+            }
+            IOUtils.closeStream(raf);
+            if (error != null){
+                temp.delete();
+            }
+        }
+        TransferResult result = new TransferResult(hdfsURL, localFilePath, error == null, bytes,
+                (System.nanoTime() - start) / 1000000, error);
+        log.info(result);
+        return result;
+    }
+
+    /**
+     * 按块边界分段，分段数少于threads时将每个块均分，分段不小于MIN_RANGE_SIZE
+     * @return {起始位置, 长度}
+     */
+    private List<long[]> splitRanges(BlockLocation[] blocks, long length, int threads){
+        List<long[]> blockRanges = new ArrayList<long[]>();
+        for (BlockLocation block : blocks){
+            long end = Math.min(block.getOffset() + block.getLength(), length);
+            if (end > block.getOffset()){
+                blockRanges.add(new long[]{block.getOffset(), end - block.getOffset()});
+            }
+        }
+        if (blockRanges.isEmpty() && length > 0){
+            blockRanges.add(new long[]{0, length});
+        }
+        int parts = (threads + blockRanges.size() - 1) / Math.max(1, blockRanges.size());
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (long[] block : blockRanges){
+            int n = (int) Math.max(1, Math.min(parts, block[1] / MIN_RANGE_SIZE));
+            long size = (block[1] + n - 1) / n;
+            for (long offset = block[0]; offset < block[0] + block[1]; offset += size){
+                ranges.add(new long[]{offset, Math.min(size, block[0] + block[1] - offset)});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 读取一个分段并写入本地文件的相同位置
+     */
+    private long readRange(FileSystem fs, Path source, long offset, long length, FileChannel channel) throws IOException{
+        FSDataInputStream in = fs.open(source, TRANSFER_BUFFER_SIZE);
+        try {
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            for (long done = 0; done < length; ){
+                int n = (int) Math.min(buffer.length, length - done);
+                in.readFully(offset + done, buffer, 0, n);
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, n), offset + done);
+                done += n;
+            }
+            return length;
+        }finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * 传输日志按源和目标命名，同一对源和目标总是使用同一个日志
+     */
+    private File journalFile(String source, String target){
+        byte[] key = (source + "\n" + target).getBytes(Charset.forName("UTF-8"));
+        return new File(journalDir, UUID.nameUUIDFromBytes(key) + ".journal");
+    }
+
+    /**
+     * 上次上传异常退出时文件仍处于打开状态，先回收租约才能截断或追加
+     */
+    private void recoverLease(FileSystem fs, Path path) throws IOException{
+        if (!(fs instanceof DistributedFileSystem)){
+            return;
+        }
+        DistributedFileSystem dfs = (DistributedFileSystem) fs;
+        if (dfs.isFileClosed(path) || dfs.recoverLease(path)){
+            return;
+        }
+        waitForClose(dfs, path);
+    }
+
+    /**
+     * 截断临时文件到已确认的位置，文件系统不支持时返回false，由调用方重新上传
+     */
+    private boolean truncate(FileSystem fs, Path path, long length) throws IOException{
+        try {
+            if (!fs.truncate(path, length) && fs instanceof DistributedFileSystem){
+                //截断位置不在块边界时需要等待块恢复完成
+                waitForClose((DistributedFileSystem) fs, path);
+            }
+            return true;
+        }catch (UnsupportedOperationException e){
+            log.warn(path + "所在文件系统不支持截断，重新上传.");
             return false;
         }
-        return true;
+    }
+
+    private void waitForClose(DistributedFileSystem dfs, Path path) throws IOException{
+        long deadline = System.currentTimeMillis() + LEASE_RECOVERY_MILLIS;
+        while (!dfs.isFileClosed(path)){
+            if (System.currentTimeMillis() > deadline){
+                throw new IOException("等待" + path + "恢复超时.");
+            }
+            try {
+                Thread.sleep(1000);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("等待" + path + "恢复被中断.");
+            }
+        }
+    }
+
+    /**
+     * 读回临时文件的最后一块，与日志中的CRC比较
+     */
+    private boolean verifyLastChunk(TransferJournal journal, FileSystem fs, Path temp) throws IOException{
+        int last = journal.getChunks() - 1;
+        long offset = journal.getAcknowledged() - journal.getLength(last);
+        FSDataInputStream in = fs.open(temp, TRANSFER_BUFFER_SIZE);
+        try {
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            for (int done = 0; done < journal.getLength(last); ){
+                int n = Math.min(buffer.length, journal.getLength(last) - done);
+                in.readFully(offset + done, buffer, 0, n);
+                crc.update(buffer, 0, n);
+                done += n;
+            }
+            return crc.getValue() == journal.getCrc(last);
+        }finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    private long crc(FileChannel channel, long offset, int length) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        for (int done = 0; done < length; ){
+            buffer.clear();
+            buffer.limit(Math.min(buffer.capacity(), length - done));
+            int n = channel.read(buffer, offset + done);
+            if (n < 0){
+                return -1;
+            }
+            crc.update(buffer.array(), 0, n);
+            done += n;
+        }
+        return crc.getValue();
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void listFiles(File dir, List<File> files){
+        File[] children = dir.listFiles();
+        if (children == null){
+            return;
+        }
+        for (File child : children){
+            if (child.isDirectory()){
+                listFiles(child, files);
+            }else if (child.isFile()){
+                files.add(child);
+            }
+        }
     }
 
     public boolean getFromHDFS(String hdfsURL, String localFilePath){
         try{
             //构建FileSystem
             OutputStream outStream = new FileOutputStream(new File(localFilePath));
-            FileSystem hdfs = FileSystem.get(URI.create(hdfsURL), conf);
+            FileSystem hdfs = client.getFileSystem(new Path(hdfsURL));
             //读取HDFS文件
             InputStream inStream = hdfs.open(new Path(hdfsURL));
             IOUtils.copyBytes(inStream, outStream,2048, true);//保存到本地
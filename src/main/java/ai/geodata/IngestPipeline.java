@@ -0,0 +1,387 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 影像入库流水线：格式转换、缩略图和上传HDFS分阶段并行，本地磁盘只作有上限的中转
+ */
+
+package ai.geodata;
+
+import ai.geodata.common.TransferResult;
+import ai.geodata.util.GDALRegistry;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 转换线程把影像转为COG写入本地中转目录，转换完成后交给发布线程生成缩略图并上传，
+ * 下一景的转换与上一景的上传同时进行，每景的耗时接近最慢的一个阶段。
+ * COG带内部金字塔，缩略图只读取转换时刚写入的金字塔层，不再读取源影像。
+ * 中转目录中同时存在的景数不超过maxSpilled，上传完成后即删除。
+ */
+public class IngestPipeline {
+    protected Logger log = Logger.getLogger(IngestPipeline.class);
+
+    private final GDALTranslate translate;
+    private final HDFSOperations hdfs;
+    private final File spillDir;
+    private final int converters;
+    private final int publishers;
+    private final int maxSpilled;
+    //是否转为COG，false时转为普通GeoTiff
+    private boolean cog = true;
+
+    //每个发布线程一个GDAL2Thumbnail
+    private final ThreadLocal<GDAL2Thumbnail> thumbnails = new ThreadLocal<GDAL2Thumbnail>() {
+        @Override
+        protected GDAL2Thumbnail initialValue() {
+            return new GDAL2Thumbnail();
+        }
+    };
+
+    /**
+     * @param translate 转换引擎，压缩等参数在其上设置
+     * @param hdfs 上传使用的HDFSOperations
+     * @param spillDir 本地中转目录
+     * @param converters 转换线程数
+     * @param publishers 缩略图和上传线程数
+     * @param maxSpilled 中转目录中最多同时存在的景数
+     */
+    public IngestPipeline(GDALTranslate translate, HDFSOperations hdfs, String spillDir,
+                          int converters, int publishers, int maxSpilled) {
+        if (converters < 1 || publishers < 1 || maxSpilled < 1) {
+            throw new IllegalArgumentException("converters, publishers and maxSpilled must be positive");
+        }
+        this.translate = translate;
+        this.hdfs = hdfs;
+        this.spillDir = new File(spillDir);
+        this.converters = converters;
+        this.publishers = publishers;
+        this.maxSpilled = maxSpilled;
+        GDALRegistry.register();
+    }
+
+    /**
+     * @param cog true(默认)时转为COG，false时转为普通GeoTiff
+     */
+    public void setCOG(boolean cog) {
+        this.cog = cog;
+    }
+
+    /**
+     * 执行入库，HDFS上的文件名为影像名(不含扩展名)，同一HDFS目录下重名的任务只执行第一个，其余直接失败
+     * @param jobs 任务列表
+     * @return 每景的结果及总体吞吐量
+     */
+    public Report run(final List<Job> jobs) {
+        if (!spillDir.mkdirs() && !spillDir.isDirectory()) {
+            log.error("无法创建中转目录: " + spillDir);
+            return null;
+        }
+        final Semaphore spill = new Semaphore(maxSpilled);
+        final Result[] results = new Result[jobs.size()];
+        final CountDownLatch done = new CountDownLatch(jobs.size());
+        final ExecutorService convertPool = Executors.newFixedThreadPool(converters);
+        final ExecutorService publishPool = Executors.newFixedThreadPool(publishers);
+        long start = System.nanoTime();
+        //上传时会覆盖同名目标，不同目录下的同名影像会互相覆盖
+        Map<String, String> targets = new HashMap<String, String>();
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                final int index = i;
+                Job job = jobs.get(i);
+                String target = job.getHdfsDir() + "/" + baseName(job.getInput());
+                String previous = targets.get(target);
+                if (previous != null) {
+                    results[index] = new Result(job, false, 0, 0, 0,
+                            "HDFS目标重名: " + target + ", 与" + previous + "冲突");
+                    log.error(results[index]);
+                    done.countDown();
+                    continue;
+                }
+                targets.put(target, job.getInput());
+                convertPool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            convert(jobs.get(index), index, results, done, spill, publishPool);
+                        } catch (RuntimeException e) {
+                            log.error(e.getMessage(), e);
+                            results[index] = new Result(jobs.get(index), false, 0, 0, 0, String.valueOf(e));
+                            spill.release();
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("入库被中断.");
+        } finally {
+            convertPool.shutdownNow();
+            publishPool.shutdownNow();
+        }
+
+        List<Result> list = new ArrayList<Result>(results.length);
+        for (Result result : results) {
+            if (result != null) {
+                list.add(result);
+            }
+        }
+        Report report = new Report(list, (System.nanoTime() - start) / 1000000);
+        log.info(report);
+        return report;
+    }
+
+    /**
+     * @return 不含目录和扩展名的影像名
+     */
+    private static String baseName(String input) {
+        String name = new File(input).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * 转换一景，成功后交给发布线程；中转目录已满时等待
+     */
+    private void convert(final Job job, final int index, final Result[] results, final CountDownLatch done,
+                         final Semaphore spill, ExecutorService publishPool) {
+        final long start = System.nanoTime();
+        try {
+            spill.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            results[index] = new Result(job, false, 0, 0, 0, "interrupted");
+            done.countDown();
+            return;
+        }
+        final String baseName = baseName(job.getInput());
+        //同名影像可能来自不同目录，中转文件加上序号
+        final File tiff = new File(spillDir, index + "_" + baseName + ".tif");
+        boolean success = cog ? translate.image2COG(job.getInput(), tiff.getPath())
+                : translate.image2GTiff(job.getInput(), tiff.getPath());
+        final long convertMillis = (System.nanoTime() - start) / 1000000;
+        if (!success) {
+            tiff.delete();
+            spill.release();
+            results[index] = new Result(job, false, convertMillis, 0, 0, "转换失败: " + job.getInput());
+            log.error(results[index]);
+            done.countDown();
+            return;
+        }
+
+        publishPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                File thumbnail = new File(spillDir, index + "_" + baseName + ".jpg");
+                try {
+                    results[index] = publish(job, tiff, thumbnail, baseName, convertMillis);
+                } catch (RuntimeException e) {
+                    log.error(e.getMessage(), e);
+                    results[index] = new Result(job, false, convertMillis, 0, 0, String.valueOf(e));
+                } finally {
+                    tiff.delete();
+                    thumbnail.delete();
+                    spill.release();
+                    if (results[index].isSuccess()) {
+                        log.info(results[index]);
+                    } else {
+                        log.error(results[index]);
+                    }
+                    done.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * 从转换结果生成缩略图，再把影像和缩略图上传到HDFS
+     */
+    private Result publish(Job job, File tiff, File thumbnail, String baseName, long convertMillis) {
+        long start = System.nanoTime();
+        GDAL2Thumbnail thumb = thumbnails.get();
+        double scale = thumb.getScale(tiff.getPath(), job.getThumbnailSize());
+        int[] bands = job.getBands();
+        boolean thumbnailCreated = scale > 0 && (bands.length == 1
+                ? thumb.create(tiff.getPath(), thumbnail.getPath(), bands[0], scale)
+                : thumb.create(tiff.getPath(), thumbnail.getPath(), bands[0], bands[1], bands[2], scale));
+        if (!thumbnailCreated) {
+            return new Result(job, false, convertMillis, (System.nanoTime() - start) / 1000000, 0,
+                    "生成缩略图失败: " + tiff);
+        }
+
+        TransferResult upload = hdfs.putToHDFSResumable(tiff.getPath(), job.getHdfsDir() + "/" + baseName + ".tif", true);
+        long bytes = upload.getBytes();
+        if (upload.isSuccess()) {
+            TransferResult thumbUpload = hdfs.putToHDFSResumable(thumbnail.getPath(),
+                    job.getHdfsDir() + "/" + baseName + ".jpg", true);
+            bytes += thumbUpload.getBytes();
+            upload = thumbUpload.isSuccess() ? upload : thumbUpload;
+        }
+        return new Result(job, upload.isSuccess(), convertMillis, (System.nanoTime() - start) / 1000000, bytes,
+                upload.getError());
+    }
+
+    /**
+     * 单景入库任务
+     */
+    public static class Job {
+        private final String input;
+        private final String hdfsDir;
+        private final int[] bands;
+        private final int thumbnailSize;
+
+        /**
+         * @param input 输入影像路径
+         * @param hdfsDir 影像和缩略图上传的HDFS目录
+         * @param bands 缩略图使用的1个或3个波段
+         * @param thumbnailSize 缩略图长和宽的最大值
+         */
+        public Job(String input, String hdfsDir, int[] bands, int thumbnailSize) {
+            if (bands == null || (bands.length != 1 && bands.length != 3)) {
+                throw new IllegalArgumentException("bands must have 1 or 3 elements");
+            }
+            this.input = input;
+            this.hdfsDir = hdfsDir;
+            this.bands = bands.clone();
+            this.thumbnailSize = thumbnailSize;
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        public String getHdfsDir() {
+            return hdfsDir;
+        }
+
+        public int[] getBands() {
+            return bands.clone();
+        }
+
+        public int getThumbnailSize() {
+            return thumbnailSize;
+        }
+    }
+
+    /**
+     * 单景的执行结果
+     */
+    public static class Result {
+        private final Job job;
+        private final boolean success;
+        private final long convertMillis;
+        private final long publishMillis;
+        private final long bytes;
+        private final String error;
+
+        public Result(Job job, boolean success, long convertMillis, long publishMillis, long bytes, String error) {
+            this.job = job;
+            this.success = success;
+            this.convertMillis = convertMillis;
+            this.publishMillis = publishMillis;
+            this.bytes = bytes;
+            this.error = error;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return 转换耗时，包括等待中转空间的时间
+         */
+        public long getConvertMillis() {
+            return convertMillis;
+        }
+
+        /**
+         * @return 生成缩略图和上传的耗时
+         */
+        public long getPublishMillis() {
+            return publishMillis;
+        }
+
+        /**
+         * @return 上传到HDFS的字节数
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return job.getInput() + " -> " + job.getHdfsDir() + (success ? " 成功" : " 失败: " + error)
+                    + ", 转换" + convertMillis + "ms, 发布" + publishMillis + "ms, " + bytes + "字节";
+        }
+    }
+
+    /**
+     * 入库的汇总
+     */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsedMillis;
+
+        public Report(List<Result> results, long elapsedMillis) {
+            this.results = results;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getSucceeded() {
+            int count = 0;
+            for (Result result : results) {
+                if (result.isSuccess()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public long getBytes() {
+            long bytes = 0;
+            for (Result result : results) {
+                bytes += result.getBytes();
+            }
+            return bytes;
+        }
+
+        /**
+         * @return 每秒完成的景数
+         */
+        public double getScenesPerSecond() {
+            return elapsedMillis == 0 ? 0 : getSucceeded() * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "入库" + getSucceeded() + "/" + results.size() + "景, 耗时" + elapsedMillis + "ms, "
+                    + String.format("%.3f", getScenesPerSecond()) + "景/秒";
+        }
+    }
+}
@@ -1,75 +1,372 @@
 package ai.geodata;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
-
-import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import ai.geodata.common.MetadataRecord;
+import org.apache.log4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 public class MetadataIO {
+    protected Logger log = Logger.getLogger(MetadataIO.class);
+
     private static String itemName = "元数据项";
     private static String itemValueName = "元数据值";
-    private String[] stringItems = null;
-    private String[] dateItems = null;
+    //日期项的几种写法，DateTimeFormatter不可变，各线程共用
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy/M/d"),
+            DateTimeFormatter.ofPattern("yyyy-M-d"),
+            DateTimeFormatter.ofPattern("yyyy.M.d"),
+            DateTimeFormatter.ofPattern("yyyyMMdd")};
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private Set<String> stringItems = null;
+    private Set<String> dateItems = null;
     public MetadataIO(){
-        stringItems = new String[]{"idDataName", "idEd", "idFormatName", "idRk",
+        stringItems = new HashSet<String>(Arrays.asList("idDataName", "idEd", "idFormatName", "idRk",
                 "idProject", "idOwnEntity", "idFormDep", "idCoordUnit",
                 "idCodingNum", "idStandardNum", "idDictStandardNum",
-                "crsVertDatum", "crsGeoDatum",  "imaCoverage", "secClass", "pubRang"};
-        dateItems = new String[] {"idFormData", "idUpdateData", "tePosition"};
+                "crsVertDatum", "crsGeoDatum",  "imaCoverage", "secClass", "pubRang"));
+        dateItems = new HashSet<String>(Arrays.asList("idFormData", "idUpdateData", "tePosition"));
+    }
+
+    private static XMLInputFactory createFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        //元数据文件不需要DTD和外部实体
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
     }
 
+    /**
+     * 检查元数据文件能否解析
+     */
     public boolean read(String xmlPath){
-        SAXReader reader = new SAXReader();
-        Document document = null;
+        return parse(xmlPath) != null;
+    }
+
+    /**
+     * 解析一个元数据文件
+     * @return 解析失败或日期项格式错误时返回null
+     */
+    public MetadataRecord parse(String xmlPath){
+        MetadataRecord record = new MetadataRecord(xmlPath);
+        return parse(xmlPath, record) ? record : null;
+    }
+
+    /**
+     * 流式解析一个元数据文件，结果写入record(先清空)，可对多个文件重复使用同一个record
+     * @return 是否解析成功
+     */
+    public boolean parse(String xmlPath, MetadataRecord record){
+        record.clear(xmlPath);
+        InputStream in = null;
+        XMLStreamReader reader = null;
         try {
-            document = reader.read(new File(xmlPath));
-        }catch (DocumentException e){
-            e.printStackTrace();
+            in = new BufferedInputStream(new FileInputStream(xmlPath), 1 << 16);
+            reader = FACTORY.createXMLStreamReader(in);
+            //根节点(MetaDataItems)深度为1，每个子节点(深度2)包含一对元数据项和元数据值
+            int depth = 0;
+            String itemID = null;
+            String strValue = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2) {
+                        itemID = null;
+                        strValue = null;
+                    } else if (depth == 3 && itemName.equals(reader.getLocalName())) {
+                        itemID = readText(reader).trim();
+                        depth--;
+                    } else if (depth == 3 && itemValueName.equals(reader.getLocalName())) {
+                        strValue = readText(reader).trim();
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 2 && itemID != null && strValue != null && !strValue.isEmpty()
+                            && !put(record, itemID, strValue))
+                        return false;
+                    depth--;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("读取元数据失败: " + xmlPath + ", " + e.getMessage());
+            return false;
+        } catch (XMLStreamException e) {
+            log.error("解析元数据失败: " + xmlPath + ", " + e.getMessage());
             return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
         }
-        //获取文档根节点(MetaDataItems)
-        Element root = document.getRootElement();
-
-        //获取根节点下面的所有子节点（不包过子节点的子节点）
-        List<Element> childNodes = root.elements();
-        for(Element childNode : childNodes){
-            Element item = childNode.element(itemName);
-            if (item instanceof Node){
-                String itemID = item.getStringValue();
-                Element itemValue = childNode.element(itemValueName);
-                if (itemValue instanceof Node){
-                    String strValue = itemValue.getStringValue();
-                    if (strValue != null && !"".equals(strValue)) {
-                        //数据项是日期型
-                        if (Arrays.binarySearch(dateItems, itemID) >= 0) {
-                            SimpleDateFormat sdf = new SimpleDateFormat("yyyy/mm/dd");
-                            try {
-                                Date dateVal = sdf.parse(strValue);
-                                System.out.println(dateVal);
-                            } catch (ParseException e) {
-                                e.printStackTrace();
-                                return false;
-                            }
-                        }
+    }
 
-                    }
-                }
+    /**
+     * 读取当前元素下的全部文本(与dom4j的getStringValue相同)，返回时当前元素已结束
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * 按元数据项标识把值放入记录，不在列表中的项忽略
+     * @return 日期项格式错误时返回false
+     */
+    private boolean put(MetadataRecord record, String itemID, String strValue){
+        //数据项是日期型
+        if (dateItems.contains(itemID)) {
+            LocalDate dateVal = parseDate(strValue);
+            if (dateVal == null) {
+                log.error("日期格式错误: " + itemID + "=" + strValue + ", " + record.getSource());
+                return false;
             }
+            record.putDate(itemID, dateVal);
+        } else if (stringItems.contains(itemID)) {
+            record.putString(itemID, strValue);
         }
         return true;
     }
 
+    /**
+     * @return 日期，各格式都不符时返回null
+     */
+    static LocalDate parseDate(String value){
+        //只取日期部分，忽略其后的时间
+        int space = value.indexOf(' ');
+        String date = space > 0 ? value.substring(0, space) : value;
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return LocalDate.parse(date, format);
+            } catch (DateTimeParseException e) {
+                //尝试下一种格式
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 多线程解析目录(含子目录)下的全部.xml文件，按路径排序
+     * @param xmlDir 元数据目录
+     * @param threads 线程数
+     * @return 每个文件的结果，目录无法读取时返回null
+     */
+    public Report readAll(String xmlDir, int threads){
+        List<String> xmlPaths = new ArrayList<String>();
+        Stream<Path> walk = null;
+        try {
+            walk = Files.walk(Paths.get(xmlDir));
+            Iterator<Path> it = walk.iterator();
+            while (it.hasNext()) {
+                Path path = it.next();
+                if (Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".xml"))
+                    xmlPaths.add(path.toString());
+            }
+        } catch (IOException e) {
+            log.error("读取元数据目录失败: " + xmlDir + ", " + e.getMessage());
+            return null;
+        } finally {
+            if (walk != null)
+                walk.close();
+        }
+        Collections.sort(xmlPaths);
+        return readAll(xmlPaths, threads);
+    }
+
+    /**
+     * 多线程解析元数据文件，单个文件失败不影响其他文件
+     * @param xmlPaths 元数据文件路径
+     * @param threads 线程数
+     * @return 按输入顺序的每个文件的结果
+     */
+    public Report readAll(List<String> xmlPaths, int threads){
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(xmlPaths.size());
+        for (final String xmlPath : xmlPaths) {
+            futures.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    long begin = System.nanoTime();
+                    MetadataRecord record = parse(xmlPath);
+                    return new Result(xmlPath, record, record == null ? "解析失败" : null,
+                            (System.nanoTime() - begin) / 1000000);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<Result>(xmlPaths.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("解析元数据被中断.");
+                pool.shutdownNow();
+                break;
+            } catch (ExecutionException e) {
+                log.error(e.getCause().getMessage(), e.getCause());
+                results.add(new Result(xmlPaths.get(i), null, String.valueOf(e.getCause()), 0));
+            }
+        }
+        Report report = new Report(results, (System.nanoTime() - start) / 1000000);
+        log.info(report);
+        return report;
+    }
+
+    /**
+     * 单个元数据文件的解析结果
+     */
+    public static class Result {
+        private final String source;
+        private final MetadataRecord record;
+        private final String error;
+        private final long millis;
+
+        public Result(String source, MetadataRecord record, String error, long millis) {
+            this.source = source;
+            this.record = record;
+            this.error = error;
+            this.millis = millis;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return 解析出的记录，失败时为null
+         */
+        public MetadataRecord getRecord() {
+            return record;
+        }
+
+        public boolean isSuccess() {
+            return record != null;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return source + (isSuccess() ? " 成功" : " 失败: " + error) + ", " + millis + "ms";
+        }
+    }
+
+    /**
+     * 批量解析的汇总
+     */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsedMillis;
+
+        public Report(List<Result> results, long elapsedMillis) {
+            this.results = results;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return 解析成功的记录
+         */
+        public List<MetadataRecord> getRecords() {
+            List<MetadataRecord> records = new ArrayList<MetadataRecord>();
+            for (Result result : results) {
+                if (result.isSuccess()) {
+                    records.add(result.getRecord());
+                }
+            }
+            return records;
+        }
+
+        public List<Result> getFailed() {
+            List<Result> failed = new ArrayList<Result>();
+            for (Result result : results) {
+                if (!result.isSuccess()) {
+                    failed.add(result);
+                }
+            }
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "解析元数据" + (results.size() - getFailed().size()) + "/" + results.size() + "个, 耗时"
+                    + elapsedMillis + "ms";
+        }
+    }
+
     public static void main(String[] args){
         String xmlPath = "D:\\data\\RS_020_1.xml";
         MetadataIO metadata = new MetadataIO();
-        metadata.read(xmlPath);
+        metadata.log.info(metadata.parse(xmlPath));
     }
 }
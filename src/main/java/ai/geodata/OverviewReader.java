@@ -0,0 +1,173 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 按目标大小直接读取降采样后的影像，优先使用最接近的金字塔层
+ */
+
+package ai.geodata;
+
+import ai.geodata.common.ContentValue;
+import org.apache.log4j.Logger;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.util.Arrays;
+
+public class OverviewReader {
+    protected static Logger log = Logger.getLogger(OverviewReader.class);
+
+    //GDAL 2.2的Java绑定中RasterIO没有重采样参数，只能通过该配置项指定
+    private static final String RESAMPLING_OPTION = "GDAL_RASTERIO_RESAMPLING";
+
+    //该配置项是进程级的，使用中的取值及持有者数，不同方法的读取互相等待，相同方法的读取可以并行
+    private static final Object RESAMPLING_LOCK = new Object();
+    private static String currentResampling = null;
+    private static String previousResampling = null;
+    private static int holders = 0;
+    private static int waiting = 0;
+
+    /**
+     * 开始以指定的重采样方法降采样读取，须与endResampling()成对调用(放在finally中)。
+     * 其他线程正在使用不同的方法时等待其结束，结束后恢复原来的配置
+     * @param method ContentValue.resamplingList中的一项
+     * @return 方法不支持时返回false，此时不需要调用endResampling()
+     */
+    public static boolean beginResampling(String method) {
+        String gdalMethod = toGDALResampling(method);
+        if (gdalMethod == null) {
+            log.error("不支持的重采样方法: " + method + ", 可选: " + Arrays.toString(ContentValue.resamplingList));
+            return false;
+        }
+        boolean interrupted = false;
+        synchronized (RESAMPLING_LOCK) {
+            boolean counted = false;
+            //有其他方法在等待时，相同方法的新读取也排队，避免其一直等不到
+            while (holders > 0 && !(gdalMethod.equals(currentResampling) && (counted || waiting == 0))) {
+                if (!counted) {
+                    waiting++;
+                    counted = true;
+                }
+                try {
+                    RESAMPLING_LOCK.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (counted) {
+                waiting--;
+            }
+            if (holders == 0) {
+                previousResampling = gdal.GetConfigOption(RESAMPLING_OPTION);
+                gdal.SetConfigOption(RESAMPLING_OPTION, gdalMethod);
+                currentResampling = gdalMethod;
+            }
+            holders++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * 结束降采样读取，最后一个持有者恢复原来的配置
+     */
+    public static void endResampling() {
+        synchronized (RESAMPLING_LOCK) {
+            if (--holders == 0) {
+                gdal.SetConfigOption(RESAMPLING_OPTION, previousResampling);
+                currentResampling = null;
+                previousResampling = null;
+                RESAMPLING_LOCK.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 将resamplingList中的名称转换为GDAL_RASTERIO_RESAMPLING的取值
+     */
+    public static String toGDALResampling(String method) {
+        if (method == null || !Arrays.asList(ContentValue.resamplingList).contains(method)) {
+            return null;
+        }
+        if (method.equals("near")) {
+            return "NEAREST";
+        }
+        //RasterIO没有antialias，用面积平均代替
+        if (method.equals("antialias")) {
+            return "AVERAGE";
+        }
+        return method.toUpperCase();
+    }
+
+    /**
+     * 选择长宽都不小于目标大小的最小金字塔层，没有合适的金字塔时返回原波段
+     * @param band 原始波段
+     * @param dstCols 目标宽度
+     * @param dstRows 目标高度
+     * @return 用于读取的波段
+     */
+    public static Band selectOverview(Band band, int dstCols, int dstRows) {
+        int count = band.GetOverviewCount();
+        Band[] candidates = new Band[count + 1];
+        long[] widths = new long[count + 1];
+        long[] heights = new long[count + 1];
+        candidates[0] = band;
+        widths[0] = band.getXSize();
+        heights[0] = band.getYSize();
+        for (int i = 0; i < count; i++) {
+            Band overview = band.GetOverview(i);
+            candidates[i + 1] = overview;
+            //无法读取的金字塔层不参与选择
+            widths[i + 1] = overview == null ? 0 : overview.getXSize();
+            heights[i + 1] = overview == null ? 0 : overview.getYSize();
+        }
+        return candidates[selectLevel(widths, heights, dstCols, dstRows)];
+    }
+
+    /**
+     * 金字塔层的选择规则：长宽都不小于目标大小的层中宽度最小的一层，都不满足时为原始分辨率。
+     * selectOverview和HDFSRasterCache.fetchOverview共用此规则
+     * @param widths 各层宽度，第一个为原始分辨率
+     * @param heights 各层高度
+     * @param dstCols 目标宽度
+     * @param dstRows 目标高度
+     * @return 所选层的序号
+     */
+    public static int selectLevel(long[] widths, long[] heights, int dstCols, int dstRows) {
+        int best = 0;
+        for (int i = 1; i < widths.length; i++) {
+            if (widths[i] >= dstCols && heights[i] >= dstRows && widths[i] < widths[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 将整个波段降采样读取到dstCols*dstRows的缓存中
+     * @param band 原始波段
+     * @param dstCols 目标宽度
+     * @param dstRows 目标高度
+     * @param buffer 输出缓存，长度不小于dstCols*dstRows，按行存储
+     * @param method 重采样方法，ContentValue.resamplingList中的一项
+     * @return 是否读取成功
+     */
+    public static boolean read(Band band, int dstCols, int dstRows, float[] buffer, String method) {
+        if (!beginResampling(method)) {
+            return false;
+        }
+        try {
+            Band source = selectOverview(band, dstCols, dstRows);
+            if (source.ReadRaster(0, 0, source.getXSize(), source.getYSize(), dstCols, dstRows,
+                    gdalconstConstants.GDT_Float32, buffer) != gdalconstConstants.CE_None) {
+                log.error("读取影像数据失败: " + gdal.GetLastErrorMsg());
+                return false;
+            }
+            return true;
+        } finally {
+            endResampling();
+        }
+    }
+}
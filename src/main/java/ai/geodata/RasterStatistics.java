@@ -0,0 +1,300 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 按影像原生块大小一次遍历计算多个波段的统计值
+ */
+
+package ai.geodata;
+
+import ai.geodata.common.BandStatistics;
+import org.apache.log4j.Logger;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.util.Arrays;
+
+public class RasterStatistics {
+    protected Logger log = Logger.getLogger(RasterStatistics.class);
+
+    //单次读取的像元数上限，条带影像的块只有一行时按此合并多行
+    private static final int MAX_READ_PIXELS = 1024 * 1024;
+    //非整型数据用于计算百分比的采样数上限
+    private static final int SAMPLE_SIZE = 1024 * 1024;
+
+    private boolean approxOK = false;
+    private int minOverviewCols = 0;
+    private int minOverviewRows = 0;
+    private int histogramBuckets = 0;
+    private double lowPercent = -1;
+    private double highPercent = -1;
+    private long bytesRead = 0;
+
+    /**
+     * 允许使用概略统计：优先使用GDAL已缓存的统计值，其次使用长宽都不小于minSize的最小金字塔层
+     * @param approxOK 是否允许概略统计
+     * @param minSize 所用金字塔层长和宽的最小值
+     * @return this
+     */
+    public RasterStatistics setApproxOK(boolean approxOK, int minSize) {
+        return setApproxOK(approxOK, minSize, minSize);
+    }
+
+    /**
+     * 允许使用概略统计：优先使用GDAL已缓存的统计值，其次使用与OverviewReader.read相同选择的金字塔层，
+     * 即宽不小于minCols、高不小于minRows的最小一层
+     * @param approxOK 是否允许概略统计
+     * @param minCols 所用金字塔层宽的最小值，一般取缩略图宽度
+     * @param minRows 所用金字塔层高的最小值，一般取缩略图高度
+     * @return this
+     */
+    public RasterStatistics setApproxOK(boolean approxOK, int minCols, int minRows) {
+        this.approxOK = approxOK;
+        this.minOverviewCols = minCols;
+        this.minOverviewRows = minRows;
+        return this;
+    }
+
+    /**
+     * @param buckets 直方图的区间个数，0表示不计算直方图
+     * @return this
+     */
+    public RasterStatistics setHistogram(int buckets) {
+        this.histogramBuckets = buckets;
+        return this;
+    }
+
+    /**
+     * 计算百分比拉伸值，例如(2, 98)
+     * @param low 下限百分比
+     * @param high 上限百分比
+     * @return this
+     */
+    public RasterStatistics setPercentiles(double low, double high) {
+        if (low < 0 || high > 100 || low >= high) {
+            throw new IllegalArgumentException("Percentiles must satisfy 0 <= low < high <= 100");
+        }
+        this.lowPercent = low;
+        this.highPercent = high;
+        return this;
+    }
+
+    /**
+     * 一次遍历计算多个波段的统计值
+     * @param dataset 影像
+     * @param bands 波段序号(从1开始)
+     * @return 与bands一一对应的统计结果，读取失败时返回null
+     */
+    public BandStatistics[] compute(Dataset dataset, int[] bands) {
+        bytesRead = 0;
+        if (approxOK) {
+            BandStatistics[] cached = cachedStatistics(dataset, bands);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Band[] readBands = new Band[bands.length];
+        boolean approximate = false;
+        for (int k = 0; k < bands.length; k++) {
+            Band band = dataset.GetRasterBand(bands[k]);
+            if (band == null) {
+                log.error("波段不存在: " + bands[k]);
+                return null;
+            }
+            Band overview = approxOK ? OverviewReader.selectOverview(band, minOverviewCols, minOverviewRows) : band;
+            approximate |= overview != band;
+            readBands[k] = overview;
+        }
+
+        Accumulator[] accumulators = new Accumulator[bands.length];
+        for (int k = 0; k < bands.length; k++) {
+            accumulators[k] = new Accumulator(dataset.GetRasterBand(bands[k]));
+        }
+
+        int nCols = readBands[0].getXSize();
+        int nRows = readBands[0].getYSize();
+        int[] blockX = new int[1];
+        int[] blockY = new int[1];
+        readBands[0].GetBlockSize(blockX, blockY);
+        int blockCols = Math.max(1, Math.min(blockX[0], nCols));
+        int blockRows = Math.max(1, Math.min(blockY[0], nRows));
+        if (blockCols == nCols && blockRows * nCols < MAX_READ_PIXELS) {
+            blockRows = Math.max(blockRows, Math.min(nRows, MAX_READ_PIXELS / nCols));
+        }
+
+        float[] buffer = new float[blockCols * blockRows];
+        for (int y = 0; y < nRows; y += blockRows) {
+            int h = Math.min(blockRows, nRows - y);
+            for (int x = 0; x < nCols; x += blockCols) {
+                int w = Math.min(blockCols, nCols - x);
+                for (int k = 0; k < bands.length; k++) {
+                    if (readBands[k].ReadRaster(x, y, w, h, buffer) != gdalconstConstants.CE_None) {
+                        log.error("影像数据的读取失败.");
+                        return null;
+                    }
+                    accumulators[k].add(buffer, w * h);
+                    bytesRead += (long) w * h * gdal.GetDataTypeSize(readBands[k].getDataType()) / 8;
+                }
+            }
+        }
+
+        BandStatistics[] result = new BandStatistics[bands.length];
+        for (int k = 0; k < bands.length; k++) {
+            result[k] = accumulators[k].finish(bands[k], approximate, histogramBuckets, lowPercent, highPercent);
+        }
+        return result;
+    }
+
+    /**
+     * @return 最近一次compute读取的像元数据量，单位字节
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * GDAL已缓存的统计值(如.aux.xml或TIFF元数据)，仅在不需要直方图和百分比时使用
+     */
+    private BandStatistics[] cachedStatistics(Dataset dataset, int[] bands) {
+        if (histogramBuckets > 0 || lowPercent >= 0) {
+            return null;
+        }
+        BandStatistics[] result = new BandStatistics[bands.length];
+        double[] min = new double[1], max = new double[1], mean = new double[1], stddev = new double[1];
+        for (int k = 0; k < bands.length; k++) {
+            Band band = dataset.GetRasterBand(bands[k]);
+            if (band == null || band.GetStatistics(true, false, min, max, mean, stddev) != gdalconstConstants.CE_None) {
+                return null;
+            }
+            result[k] = new BandStatistics(bands[k], min[0], max[0], mean[0], -1, true);
+        }
+        return result;
+    }
+
+    /**
+     * 单个波段的累加器，可逐块输入数据
+     */
+    public static class Accumulator {
+        private final boolean hasNoData;
+        private final double noData;
+
+        //Byte/UInt16/Int16按值精确计数，其他类型等间隔采样
+        private long[] counts = null;
+        private int countsOffset = 0;
+        private float[] sample = null;
+        private int sampleLength = 0;
+        private long sampleStride = 1;
+        private long seen = 0;
+
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum = 0;
+        private long count = 0;
+
+        public Accumulator(Band band) {
+            Double[] value = new Double[1];
+            band.GetNoDataValue(value);
+            this.hasNoData = value[0] != null;
+            this.noData = hasNoData ? value[0] : 0;
+
+            int type = band.getDataType();
+            if (type == gdalconstConstants.GDT_Byte) {
+                counts = new long[256];
+            } else if (type == gdalconstConstants.GDT_UInt16) {
+                counts = new long[65536];
+            } else if (type == gdalconstConstants.GDT_Int16) {
+                counts = new long[65536];
+                countsOffset = -32768;
+            } else {
+                sample = new float[SAMPLE_SIZE];
+            }
+        }
+
+        public void add(float[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                float v = buffer[i];
+                if (v != v || (hasNoData && v == noData)) {
+                    continue;
+                }
+                if (v < min) min = v;
+                if (v > max) max = v;
+                sum += v;
+                count++;
+                if (counts != null) {
+                    counts[(int) v - countsOffset]++;
+                } else if (seen++ % sampleStride == 0) {
+                    if (sampleLength == sample.length) {
+                        //采样已满时隔一丢一，并将采样间隔加倍
+                        for (int j = 0; j < sampleLength / 2; j++) {
+                            sample[j] = sample[2 * j];
+                        }
+                        sampleLength /= 2;
+                        sampleStride *= 2;
+                        if ((seen - 1) % sampleStride != 0) {
+                            continue;
+                        }
+                    }
+                    sample[sampleLength++] = v;
+                }
+            }
+        }
+
+        public BandStatistics finish(int band, boolean approximate, int buckets, double low, double high) {
+            if (count == 0) {
+                return new BandStatistics(band, 0, 0, 0, 0, approximate);
+            }
+            BandStatistics stats = new BandStatistics(band, min, max, sum / count, count, approximate);
+            float[] sorted = null;
+            if (counts == null && (buckets > 0 || low >= 0)) {
+                sorted = Arrays.copyOf(sample, sampleLength);
+                Arrays.sort(sorted);
+            }
+            if (buckets > 0) {
+                stats.setHistogram(histogram(sorted, buckets));
+            }
+            if (low >= 0) {
+                stats.setCuts(percentile(sorted, low), percentile(sorted, high));
+            }
+            return stats;
+        }
+
+        private long[] histogram(float[] sorted, int buckets) {
+            long[] histogram = new long[buckets];
+            double scale = max > min ? buckets / (max - min) : 0;
+            if (counts != null) {
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        histogram[bucket(i + countsOffset, scale, buckets)] += counts[i];
+                    }
+                }
+            } else {
+                for (float v : sorted) {
+                    histogram[bucket(v, scale, buckets)] += sampleStride;
+                }
+            }
+            return histogram;
+        }
+
+        private int bucket(double v, double scale, int buckets) {
+            return Math.min(buckets - 1, (int) ((v - min) * scale));
+        }
+
+        private double percentile(float[] sorted, double percent) {
+            if (counts != null) {
+                long target = (long) Math.floor(percent / 100.0 * (count - 1));
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    if (cumulative > target) {
+                        return i + countsOffset;
+                    }
+                }
+                return max;
+            }
+            int index = (int) Math.floor(percent / 100.0 * (sorted.length - 1));
+            return sorted[index];
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 使用固定大小的线程池批量生成缩略图
+ */
+
+package ai.geodata;
+
+import ai.geodata.util.GDALRegistry;
+import org.apache.log4j.Logger;
+import org.gdal.gdal.gdal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ThumbnailBatch {
+    protected Logger log = Logger.getLogger(ThumbnailBatch.class);
+
+    private final int threads;
+    private String resampling = "average";
+
+    //每个工作线程一个GDAL2Thumbnail，数据集在所属线程内打开和关闭
+    private final ThreadLocal<GDAL2Thumbnail> workers = new ThreadLocal<GDAL2Thumbnail>() {
+        @Override
+        protected GDAL2Thumbnail initialValue() {
+            GDAL2Thumbnail thumbnail = new GDAL2Thumbnail();
+            thumbnail.setResampling(resampling);
+            return thumbnail;
+        }
+    };
+
+    public ThumbnailBatch() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads 工作线程数
+     */
+    public ThumbnailBatch(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        GDALRegistry.register();
+    }
+
+    /**
+     * @param resampling ContentValue.resamplingList中的一项，默认average
+     */
+    public void setResampling(String resampling) {
+        if (OverviewReader.toGDALResampling(resampling) == null) {
+            throw new IllegalArgumentException("Unsupported resampling method: " + resampling);
+        }
+        this.resampling = resampling;
+    }
+
+    /**
+     * 批量生成缩略图
+     * @param jobs 任务列表
+     * @return 每个任务的结果及总体吞吐量
+     */
+    public Report run(List<Job> jobs) {
+        //GDAL块缓存为进程共享，由GDALRegistry在启动时按gdal.cacheMax设置一次
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, jobs.size())));
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(jobs.size());
+        try {
+            for (final Job job : jobs) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return execute(job);
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<Result>(jobs.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error(e.getMessage(), e);
+                    results.add(new Result(jobs.get(i), false, 0, 0, String.valueOf(e.getCause())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("批量生成缩略图被中断.");
+                    break;
+                }
+            }
+            Report report = new Report(results, (System.nanoTime() - start) / 1000000);
+            log.info(report);
+            return report;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result execute(Job job) {
+        long start = System.nanoTime();
+        GDAL2Thumbnail thumbnail = workers.get();
+        double scale = thumbnail.getScale(job.getInput(), job.getSize());
+        boolean success = scale > 0;
+        if (success) {
+            int[] bands = job.getBands();
+            success = bands.length == 1
+                    ? thumbnail.create(job.getInput(), job.getOutput(), bands[0], scale)
+                    : thumbnail.create(job.getInput(), job.getOutput(), bands[0], bands[1], bands[2], scale);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new Result(job, success, millis, success ? thumbnail.getBytesRead() : 0,
+                success ? null : gdal.GetLastErrorMsg());
+    }
+
+    /**
+     * 单个缩略图任务
+     */
+    public static class Job {
+        private final String input;
+        private final String output;
+        private final int[] bands;
+        private final int size;
+
+        /**
+         * @param input 输入影像路径
+         * @param output 输出缩略图路径，后缀决定格式
+         * @param bands 1个或3个波段
+         * @param size 缩略图长和宽的最大值
+         */
+        public Job(String input, String output, int[] bands, int size) {
+            if (bands == null || (bands.length != 1 && bands.length != 3)) {
+                throw new IllegalArgumentException("bands must have 1 or 3 elements");
+            }
+            this.input = input;
+            this.output = output;
+            this.bands = bands.clone();
+            this.size = size;
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public int[] getBands() {
+            return bands.clone();
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * 单个任务的执行结果
+     */
+    public static class Result {
+        private final Job job;
+        private final boolean success;
+        private final long millis;
+        private final long bytesRead;
+        private final String error;
+
+        public Result(Job job, boolean success, long millis, long bytesRead, String error) {
+            this.job = job;
+            this.success = success;
+            this.millis = millis;
+            this.bytesRead = bytesRead;
+            this.error = error;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 批量执行的汇总
+     */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsedMillis;
+
+        public Report(List<Result> results, long elapsedMillis) {
+            this.results = results;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getSucceeded() {
+            int count = 0;
+            for (Result result : results) {
+                if (result.isSuccess()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public long getBytesRead() {
+            long bytes = 0;
+            for (Result result : results) {
+                bytes += result.getBytesRead();
+            }
+            return bytes;
+        }
+
+        /**
+         * @return 每秒完成的景数
+         */
+        public double getScenesPerSecond() {
+            return elapsedMillis == 0 ? 0 : getSucceeded() * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * @return 每秒读取的数据量(MB)
+         */
+        public double getMBPerSecond() {
+            return elapsedMillis == 0 ? 0 : getBytesRead() / 1024.0 / 1024.0 * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("缩略图 %d/%d 成功, 耗时 %d ms, %.2f 景/s, %.2f MB/s",
+                    getSucceeded(), results.size(), elapsedMillis, getScenesPerSecond(), getMBPerSecond());
+        }
+    }
+}
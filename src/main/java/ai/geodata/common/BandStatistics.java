@@ -0,0 +1,98 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 单个波段的统计结果(最值、均值、直方图和百分比拉伸值)
+ */
+
+package ai.geodata.common;
+
+public class BandStatistics {
+    private final int band;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final long count;
+    private final boolean approximate;
+
+    private long[] histogram = null;
+    private double lowCut = Double.NaN;
+    private double highCut = Double.NaN;
+
+    public BandStatistics(int band, double min, double max, double mean, long count, boolean approximate) {
+        this.band = band;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.count = count;
+        this.approximate = approximate;
+    }
+
+    /**
+     * 设置直方图，区间为[min, max]等分
+     */
+    public void setHistogram(long[] histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * 设置百分比拉伸的上下截断值
+     */
+    public void setCuts(double lowCut, double highCut) {
+        this.lowCut = lowCut;
+        this.highCut = highCut;
+    }
+
+    public int getBand() {
+        return band;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return 参与统计的有效像元个数(不含nodata)
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return 是否由概略统计(金字塔或GDAL缓存的统计值)得到
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return 拉伸下限，未计算百分比时为最小值
+     */
+    public double getStretchMin() {
+        return Double.isNaN(lowCut) ? min : lowCut;
+    }
+
+    /**
+     * @return 拉伸上限，未计算百分比时为最大值
+     */
+    public double getStretchMax() {
+        return Double.isNaN(highCut) ? max : highCut;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("band %d: min=%s, max=%s, mean=%s, stretch=[%s, %s]%s",
+                band, min, max, mean, getStretchMin(), getStretchMax(), approximate ? " (approx)" : "");
+    }
+}
@@ -230,6 +230,22 @@ public class BoundingBox
                 point.getX() <= this.maximumX;
     }
 
+    /**
+     * Tests if another bounding box shares any area with this one. Boxes
+     * that only touch along an edge are not considered to intersect.
+     *
+     * @param other
+     *             Another bounding box
+     * @return Returns true if the interiors of the two bounding boxes overlap
+     */
+    public boolean intersects(final BoundingBox other)
+    {
+        return other.minimumX < this.maximumX &&
+                other.maximumX > this.minimumX &&
+                other.minimumY < this.maximumY &&
+                other.maximumY > this.minimumY;
+    }
+
     private final double minimumX;
     private final double minimumY;
     private final double maximumX;
@@ -9,5 +9,7 @@ public class ContentValue {
     public static int MAXZOOMLEVEL = 32;
     public static String[] resamplingList = new String[]{"average", "near", "bilinear", "cubic", "cubicspline", "lanczos", "antialias"};
     public static String[] profileList = new String[]{"mercator", "geodetic", "raster"};
+    public static String[] tileStoreList = new String[]{"directory", "pack"};
+    public static String[] compressionList = new String[]{"none", "deflate", "lzw", "packbits", "jpeg"};
     private static String[] webviewList = new String[]{"all", "google", "openlayers", "leaflet", "none"};
 }
@@ -0,0 +1,354 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 影像覆盖范围的空间索引(STR打包的R树)，按范围或点查找影像
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一次性批量构建的只读R树：先按外包矩形中心的x分为若干竖条，条内按y排序，每nodeSize个打包为一个节点，
+ * 逐层向上直到只剩根节点。所有层的矩形按层顺序存放在一个double数组中(每个4个值)，
+ * 第k个节点的子节点是下一层中连续的nodeSize个，不需要为节点建对象。
+ */
+public class FootprintIndex {
+    protected static Logger log = Logger.getLogger(FootprintIndex.class);
+
+    private static final int MAGIC = 0x52534649;  //"RSFI"
+    private static final int VERSION = 1;
+    private static final int DEFAULT_NODE_SIZE = 16;
+
+    private final int nodeSize;
+    //各层(叶子层在前)的矩形，minX, minY, maxX, maxY
+    private final double[] boxes;
+    //各层在boxes中的起始序号，最后一个元素为矩形总数
+    private final int[] levelBounds;
+    //叶子层第i个矩形对应的原始序号
+    private final int[] ids;
+    //原始序号在叶子层中的位置
+    private final int[] positions;
+    private final String[] paths;
+
+    private FootprintIndex(int nodeSize, double[] boxes, int[] levelBounds, int[] ids, String[] paths) {
+        this.nodeSize = nodeSize;
+        this.boxes = boxes;
+        this.levelBounds = levelBounds;
+        this.ids = ids;
+        this.paths = paths;
+        this.positions = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            positions[ids[i]] = i;
+        }
+    }
+
+    /**
+     * @param paths 影像路径
+     * @param footprints 与paths一一对应的覆盖范围
+     */
+    public static FootprintIndex build(List<String> paths, List<BoundingBox> footprints) {
+        return build(paths, footprints, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * @param paths 影像路径
+     * @param footprints 与paths一一对应的覆盖范围
+     * @param nodeSize 每个节点的子节点数
+     */
+    public static FootprintIndex build(List<String> paths, List<BoundingBox> footprints, int nodeSize) {
+        if (paths.size() != footprints.size()) {
+            throw new IllegalArgumentException("paths and footprints must have the same size");
+        }
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("nodeSize must be at least 2");
+        }
+        int n = paths.size();
+        double[] items = new double[n * 4];
+        int k = 0;
+        for (BoundingBox box : footprints) {
+            items[k++] = box.getMinimumX();
+            items[k++] = box.getMinimumY();
+            items[k++] = box.getMaximumX();
+            items[k++] = box.getMaximumY();
+        }
+
+        //每层节点数
+        List<Integer> counts = new ArrayList<Integer>();
+        int count = n;
+        int total = n;
+        counts.add(count);
+        while (count > 1) {
+            count = (count + nodeSize - 1) / nodeSize;
+            counts.add(count);
+            total += count;
+        }
+        int[] levelBounds = new int[counts.size() + 1];
+        for (int level = 0; level < counts.size(); level++) {
+            levelBounds[level + 1] = levelBounds[level] + counts.get(level);
+        }
+
+        //STR排序叶子：按中心x排序后分为竖条，条内按中心y排序
+        int[] order = new int[n];
+        double[] centersX = new double[n];
+        double[] centersY = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            centersX[i] = items[i * 4] + items[i * 4 + 2];
+            centersY[i] = items[i * 4 + 1] + items[i * 4 + 3];
+        }
+        sort(order, centersX, 0, n - 1);
+        int leafNodes = (n + nodeSize - 1) / nodeSize;
+        int sliceSize = nodeSize * (int) Math.ceil(Math.sqrt(leafNodes));
+        for (int start = 0; start < n; start += sliceSize) {
+            sort(order, centersY, start, Math.min(n, start + sliceSize) - 1);
+        }
+
+        double[] boxes = new double[total * 4];
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = order[i];
+            System.arraycopy(items, order[i] * 4, boxes, i * 4, 4);
+        }
+        //逐层计算父节点的外包矩形
+        for (int level = 1; level < counts.size(); level++) {
+            int childStart = levelBounds[level - 1];
+            int childEnd = levelBounds[level];
+            for (int node = levelBounds[level], child = childStart; child < childEnd; node++) {
+                double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                for (int end = Math.min(childEnd, child + nodeSize); child < end; child++) {
+                    minX = Math.min(minX, boxes[child * 4]);
+                    minY = Math.min(minY, boxes[child * 4 + 1]);
+                    maxX = Math.max(maxX, boxes[child * 4 + 2]);
+                    maxY = Math.max(maxY, boxes[child * 4 + 3]);
+                }
+                boxes[node * 4] = minX;
+                boxes[node * 4 + 1] = minY;
+                boxes[node * 4 + 2] = maxX;
+                boxes[node * 4 + 3] = maxY;
+            }
+        }
+        return new FootprintIndex(nodeSize, boxes, levelBounds, ids, paths.toArray(new String[n]));
+    }
+
+    /**
+     * 按keys对order[left..right]中的序号排序，避免装箱
+     */
+    static void sort(int[] order, double[] keys, int left, int right) {
+        while (right - left > 16) {
+            double pivot = keys[order[(left + right) >>> 1]];
+            int i = left, j = right;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            //先递归较短的一段，较长的一段继续循环
+            if (j - left < right - i) {
+                sort(order, keys, left, j);
+                left = i;
+            } else {
+                sort(order, keys, i, right);
+                right = j;
+            }
+        }
+        for (int i = left + 1; i <= right; i++) {
+            int value = order[i];
+            int j = i - 1;
+            while (j >= left && keys[order[j]] > keys[value]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = value;
+        }
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String getPath(int id) {
+        return paths[id];
+    }
+
+    public BoundingBox getFootprint(int id) {
+        int i = positions[id];
+        return new BoundingBox(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+    }
+
+    /**
+     * @return 覆盖范围与bbox相交(含边界接触)的影像路径
+     */
+    public List<String> query(BoundingBox bbox) {
+        int[] found = queryIds(bbox.getMinimumX(), bbox.getMinimumY(), bbox.getMaximumX(), bbox.getMaximumY());
+        List<String> result = new ArrayList<String>(found.length);
+        for (int id : found) {
+            result.add(paths[id]);
+        }
+        return result;
+    }
+
+    /**
+     * @return 覆盖范围包含点(x, y)的影像路径
+     */
+    public List<String> query(double x, double y) {
+        return query(new BoundingBox(x, y, x, y));
+    }
+
+    /**
+     * @return 覆盖范围与矩形相交的原始序号，按序号升序
+     */
+    public int[] queryIds(double minX, double minY, double maxX, double maxY) {
+        int[] result = new int[16];
+        int found = 0;
+        if (ids.length == 0) {
+            return new int[0];
+        }
+        int top = levelBounds.length - 2;
+        //栈中保存(层, 节点序号)
+        int[] stack = new int[64];
+        int depth = 0;
+        stack[depth++] = top;
+        stack[depth++] = levelBounds[top];
+        while (depth > 0) {
+            int node = stack[--depth];
+            int level = stack[--depth];
+            int b = node * 4;
+            if (boxes[b] > maxX || boxes[b + 2] < minX || boxes[b + 1] > maxY || boxes[b + 3] < minY) {
+                continue;
+            }
+            if (level == 0) {
+                if (found == result.length) {
+                    result = Arrays.copyOf(result, found * 2);
+                }
+                result[found++] = ids[node];
+                continue;
+            }
+            int first = levelBounds[level - 1] + (node - levelBounds[level]) * nodeSize;
+            int end = Math.min(levelBounds[level], first + nodeSize);
+            for (int child = first; child < end; child++) {
+                if (depth + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[depth++] = level - 1;
+                stack[depth++] = child;
+            }
+        }
+        result = Arrays.copyOf(result, found);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 保存为二进制文件，先写临时文件再替换
+     */
+    public boolean save(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nodeSize);
+            out.writeInt(ids.length);
+            out.writeInt(levelBounds.length);
+            for (int bound : levelBounds) {
+                out.writeInt(bound);
+            }
+            for (double value : boxes) {
+                out.writeDouble(value);
+            }
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+            for (String path : paths) {
+                out.writeUTF(path);
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            log.error("保存空间索引失败: " + file + ", " + e.getMessage(), e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 索引，文件不存在或格式不符时返回null
+     */
+    public static FootprintIndex load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("空间索引格式不符: " + file);
+                return null;
+            }
+            int nodeSize = in.readInt();
+            int n = in.readInt();
+            int[] levelBounds = new int[in.readInt()];
+            for (int i = 0; i < levelBounds.length; i++) {
+                levelBounds[i] = in.readInt();
+            }
+            double[] boxes = new double[levelBounds[levelBounds.length - 1] * 4];
+            for (int i = 0; i < boxes.length; i++) {
+                boxes[i] = in.readDouble();
+            }
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = in.readInt();
+            }
+            String[] paths = new String[n];
+            for (int i = 0; i < n; i++) {
+                paths[i] = in.readUTF();
+            }
+            return new FootprintIndex(nodeSize, boxes, levelBounds, ids, paths);
+        } catch (IOException e) {
+            log.warn("读取空间索引失败: " + file + ", " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 GDB中一个影像要素的路径、外包矩形和边界坐标
+ */
+
+package ai.geodata.common;
+
+/**
+ * 边界坐标按x, y依次存放在一个double数组中，ringStarts记录每个环的起始点序号(最后一个元素为点数)，
+ * partStarts记录每个多边形的起始环序号(最后一个元素为环数)，每个多边形的第一个环为外环。
+ * SQL和GeoJSON形式由StringBuilder按需生成；GDAL导出的JSON和WKB只在读取时要求才有。
+ */
+public class FootprintRecord {
+    private final String layer;
+    private final long fid;
+    private final String path;
+    private final BoundingBox envelope;
+    private final double[] coordinates;
+    private final int[] ringStarts;
+    private final int[] partStarts;
+    private final String[] json;
+    private final byte[] wkb;
+
+    public FootprintRecord(String layer, long fid, String path, BoundingBox envelope, double[] coordinates,
+                           int[] ringStarts, int[] partStarts, String[] json, byte[] wkb) {
+        this.layer = layer;
+        this.fid = fid;
+        this.path = path;
+        this.envelope = envelope;
+        this.coordinates = coordinates;
+        this.ringStarts = ringStarts;
+        this.partStarts = partStarts;
+        this.json = json;
+        this.wkb = wkb;
+    }
+
+    public String getLayer() {
+        return layer;
+    }
+
+    public long getFid() {
+        return fid;
+    }
+
+    /**
+     * @return 影像路径(fieldImagePath属性)
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return 外包矩形，要素没有几何时为null
+     */
+    public BoundingBox getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return 多边形个数
+     */
+    public int getPartCount() {
+        return partStarts.length - 1;
+    }
+
+    /**
+     * @return 全部点的坐标，x, y交替存放
+     */
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    public int[] getRingStarts() {
+        return ringStarts;
+    }
+
+    public int[] getPartStarts() {
+        return partStarts;
+    }
+
+    /**
+     * @return GDAL导出的第part个多边形的JSON，读取时未要求时为null
+     */
+    public String getJson(int part) {
+        return json == null ? null : json[part];
+    }
+
+    /**
+     * @return 整个几何的WKB，读取时未要求时为null
+     */
+    public byte[] getWkb() {
+        return wkb;
+    }
+
+    /**
+     * @return 第part个多边形外环的点列(不含闭合点)，形如((x1, y1), (x2, y2))，与原readGDB的boundarySql相同
+     */
+    public String toSql(int part) {
+        StringBuilder builder = new StringBuilder();
+        appendSql(builder, part);
+        return builder.toString();
+    }
+
+    public void appendSql(StringBuilder builder, int part) {
+        int ring = partStarts[part];
+        int start = ringStarts[ring];
+        int end = ringStarts[ring + 1] - 1;
+        builder.append('(');
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                builder.append(", ");
+            }
+            builder.append('(');
+            appendFixed(builder, coordinates[i * 2]);
+            builder.append(", ");
+            appendFixed(builder, coordinates[i * 2 + 1]);
+            builder.append(')');
+        }
+        builder.append(')');
+    }
+
+    /**
+     * @return 第part个多边形(含内环)的GeoJSON
+     */
+    public String toGeoJson(int part) {
+        StringBuilder builder = new StringBuilder();
+        appendGeoJson(builder, part);
+        return builder.toString();
+    }
+
+    public void appendGeoJson(StringBuilder builder, int part) {
+        builder.append("{ \"type\": \"Polygon\", \"coordinates\": [ ");
+        for (int ring = partStarts[part]; ring < partStarts[part + 1]; ring++) {
+            if (ring > partStarts[part]) {
+                builder.append(", ");
+            }
+            builder.append("[ ");
+            for (int i = ringStarts[ring]; i < ringStarts[ring + 1]; i++) {
+                if (i > ringStarts[ring]) {
+                    builder.append(", ");
+                }
+                builder.append("[ ").append(coordinates[i * 2]).append(", ").append(coordinates[i * 2 + 1]).append(" ]");
+            }
+            builder.append(" ]");
+        }
+        builder.append(" ] }");
+    }
+
+    /**
+     * 保留6位小数，与%f相同但不经过Formatter
+     */
+    static void appendFixed(StringBuilder builder, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e12) {
+            builder.append(String.format("%f", value));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * 1000000);
+        if (value < 0 && scaled != 0) {
+            builder.append('-');
+        }
+        builder.append(scaled / 1000000).append('.');
+        long fraction = scaled % 1000000;
+        for (long digit = 100000; digit > fraction && digit > 1; digit /= 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 将内存中的像元直接编码为图片，不经过临时文件
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class ImageEncoder {
+    protected static Logger log = Logger.getLogger(ImageEncoder.class);
+
+    private static final int[] ARGB_MASKS = {0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000};
+    private static final int[] RGB_MASKS = {0x00FF0000, 0x0000FF00, 0x000000FF};
+
+    /**
+     * 由文件后缀得到ImageIO的格式名称
+     * @param fileName 文件名
+     * @return png、jpeg、gif或bmp，不支持时返回null
+     */
+    public static String formatOf(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".png")) {
+            return "png";
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "jpeg";
+        } else if (name.endsWith(".gif")) {
+            return "gif";
+        } else if (name.endsWith(".bmp")) {
+            return "bmp";
+        }
+        return null;
+    }
+
+    /**
+     * @return 该格式是否支持透明通道
+     */
+    public static boolean supportsAlpha(String format) {
+        return "png".equals(format);
+    }
+
+    /**
+     * 用像元数组直接构造BufferedImage，不复制数据
+     * @param pixels 按行存储的0xAARRGGBB像元
+     * @param width 宽
+     * @param height 高
+     * @param alpha 是否使用透明通道，false时忽略高8位
+     * @return 共享pixels的图片
+     */
+    public static BufferedImage wrap(int[] pixels, int width, int height, boolean alpha) {
+        DirectColorModel colorModel = alpha
+                ? new DirectColorModel(32, ARGB_MASKS[0], ARGB_MASKS[1], ARGB_MASKS[2], ARGB_MASKS[3])
+                : new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height),
+                width, height, width, alpha ? ARGB_MASKS : RGB_MASKS, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * 编码并写入输出流
+     * @param image 图片
+     * @param format ImageIO格式名称
+     * @param out 输出流，调用方负责关闭
+     * @return 是否成功
+     */
+    public static boolean write(BufferedImage image, String format, OutputStream out) {
+        try {
+            if (!ImageIO.write(image, format, out)) {
+                log.error("没有可用的图片编码器: " + format);
+                return false;
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 编码并写入文件
+     */
+    public static boolean write(BufferedImage image, String format, File file) {
+        try {
+            if (!ImageIO.write(image, format, file)) {
+                log.error("没有可用的图片编码器: " + format);
+                return false;
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 编码为字节数组，失败时返回null
+     */
+    public static byte[] encode(BufferedImage image, String format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        return write(image, format, out) ? out.toByteArray() : null;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 一个元数据XML中解析出的字符串项和日期项
+ */
+
+package ai.geodata.common;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按元数据项标识(如idDataName、tePosition)存取，解析器可用clear()重复使用同一个对象
+ */
+public class MetadataRecord {
+    //采集时间对应的元数据项
+    public static final String ACQUISITION_ITEM = "tePosition";
+
+    private String source;
+    private final Map<String, String> strings = new HashMap<String, String>();
+    private final Map<String, LocalDate> dates = new HashMap<String, LocalDate>();
+
+    public MetadataRecord(String source) {
+        this.source = source;
+    }
+
+    /**
+     * 清空全部项，用于解析下一个文件
+     */
+    public void clear(String source) {
+        this.source = source;
+        strings.clear();
+        dates.clear();
+    }
+
+    /**
+     * @return 元数据文件路径
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void putString(String item, String value) {
+        strings.put(item, value);
+    }
+
+    public void putDate(String item, LocalDate value) {
+        dates.put(item, value);
+    }
+
+    /**
+     * @return 字符串项的值，没有该项时为null
+     */
+    public String getString(String item) {
+        return strings.get(item);
+    }
+
+    /**
+     * @return 日期项的值，没有该项时为null
+     */
+    public LocalDate getDate(String item) {
+        return dates.get(item);
+    }
+
+    public Map<String, String> getStrings() {
+        return strings;
+    }
+
+    public Map<String, LocalDate> getDates() {
+        return dates;
+    }
+
+    /**
+     * @return 采集日当天0点(UTC)的epoch毫秒，没有采集时间时为SceneRecord.NO_TIME
+     */
+    public long getAcquisitionStart() {
+        LocalDate date = dates.get(ACQUISITION_ITEM);
+        return date == null ? SceneRecord.NO_TIME : date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return 采集日最后一毫秒(UTC)的epoch毫秒，没有采集时间时为SceneRecord.NO_TIME
+     */
+    public long getAcquisitionEnd() {
+        LocalDate date = dates.get(ACQUISITION_ITEM);
+        return date == null ? SceneRecord.NO_TIME
+                : date.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - 1;
+    }
+
+    @Override
+    public String toString() {
+        return source + " " + strings + " " + dates;
+    }
+}
@@ -0,0 +1,561 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 本地文件保存的影像目录，按范围、采集时间和关键字查询，不依赖外部数据库
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 文件结构：magic, version，之后每次写入一条记录 int length, long crc, 内容，内容为
+ * 操作(1写入，2删除)和影像记录(删除时只有路径)。打开时顺序重放，末尾不完整或CRC不符的记录丢弃。
+ * 同一路径再次写入时覆盖旧记录，旧记录和删除的记录在compact时清除。
+ * <p>
+ * 查询在内存中进行：路径和关键字用HashMap，范围用FootprintIndex，采集时间用按开始时间排序的数组。
+ * 范围和时间索引只能整体构建，新写入的记录先线性扫描，积累到一定数量后在下次查询时重建。
+ * 范围查询的坐标系应与影像记录的crs一致。
+ */
+public class SceneCatalog implements Closeable {
+    protected static Logger log = Logger.getLogger(SceneCatalog.class);
+
+    private static final int MAGIC = 0x52534343;  //"RSCC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    //未建索引的记录超过该数量及已建索引记录数的1/8时重建索引
+    private static final int MIN_REBUILD = 1024;
+
+    private final File file;
+    private RandomAccessFile raf;
+    //按写入顺序的记录，被覆盖或删除的为null
+    private List<SceneRecord> slots = new ArrayList<SceneRecord>();
+    private Map<String, Integer> byPath = new HashMap<String, Integer>();
+    private Map<String, List<Integer>> byKeyword = new HashMap<String, List<Integer>>();
+    private int dead = 0;
+
+    //slots中前indexed个记录已建入范围和时间索引
+    private int indexed = 0;
+    private FootprintIndex spatial = null;
+    private int[] spatialSlots = new int[0];
+    private long[] timeStarts = new long[0];
+    private int[] timeSlots = new int[0];
+    private long maxDuration = 0;
+
+    private SceneCatalog(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.raf = raf;
+    }
+
+    /**
+     * 打开目录文件，不存在时创建
+     */
+    public static SceneCatalog open(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        SceneCatalog catalog = new SceneCatalog(file, raf);
+        try {
+            if (raf.length() == 0) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.getChannel().force(true);
+            } else {
+                if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                    throw new IOException("影像目录格式不符: " + file);
+                }
+                catalog.replay();
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        if (catalog.dead > MIN_REBUILD && catalog.dead > catalog.size()) {
+            catalog.compact();
+        }
+        log.info("打开影像目录" + file + ", " + catalog.size() + "景.");
+        return catalog;
+    }
+
+    private void replay() throws IOException {
+        long length = raf.length();
+        long offset = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (offset + 12 <= length) {
+            raf.seek(offset);
+            int size = raf.readInt();
+            long expected = raf.readLong();
+            if (size <= 0 || offset + 12 + size > length) {
+                break;
+            }
+            byte[] payload = new byte[size];
+            raf.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if (crc.getValue() != expected) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = in.readByte();
+            if (op == OP_PUT) {
+                apply(readRecord(in));
+            } else if (op == OP_DELETE) {
+                unlink(in.readUTF());
+            } else {
+                break;
+            }
+            offset += 12 + size;
+        }
+        if (offset < length) {
+            log.warn("影像目录末尾" + (length - offset) + "字节不完整，已丢弃: " + file);
+            raf.setLength(offset);
+        }
+        raf.seek(offset);
+    }
+
+    public synchronized int size() {
+        return byPath.size();
+    }
+
+    public synchronized SceneRecord get(String path) {
+        Integer slot = byPath.get(path);
+        return slot == null ? null : slots.get(slot);
+    }
+
+    /**
+     * 写入一景，同一路径的旧记录被覆盖
+     * @return 写入文件失败时返回false，内存中的目录不变
+     */
+    public boolean put(SceneRecord record) {
+        return putAll(Collections.singletonList(record));
+    }
+
+    /**
+     * 批量写入，只落盘一次
+     */
+    public synchronized boolean putAll(Collection<SceneRecord> records) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (SceneRecord record : records) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(payload);
+                out.writeByte(OP_PUT);
+                writeRecord(out, record);
+                out.close();
+                frame(bytes, payload.toByteArray());
+            }
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            log.error("写入影像目录失败: " + file + ", " + e.getMessage(), e);
+            return false;
+        }
+        for (SceneRecord record : records) {
+            apply(record);
+        }
+        return true;
+    }
+
+    /**
+     * 删除一景
+     * @return 不存在或写入文件失败时返回false
+     */
+    public synchronized boolean remove(String path) {
+        if (!byPath.containsKey(path)) {
+            return false;
+        }
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(OP_DELETE);
+            out.writeUTF(path);
+            out.close();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            frame(bytes, payload.toByteArray());
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            log.error("写入影像目录失败: " + file + ", " + e.getMessage(), e);
+            return false;
+        }
+        unlink(path);
+        return true;
+    }
+
+    /**
+     * @return 范围与aoi相交的影像
+     */
+    public List<SceneRecord> query(BoundingBox aoi) {
+        return query(aoi, SceneRecord.NO_TIME, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @return 采集时间与[from, to](epoch毫秒)有重叠的影像
+     */
+    public List<SceneRecord> query(long from, long to) {
+        return query(null, from, to, null);
+    }
+
+    /**
+     * @return 有该关键字(不区分大小写)的影像
+     */
+    public List<SceneRecord> query(String keyword) {
+        return query(null, SceneRecord.NO_TIME, Long.MAX_VALUE, keyword);
+    }
+
+    /**
+     * 组合查询，各条件同时满足，结果按写入顺序
+     * @param aoi 范围，为null时不限
+     * @param from 采集时间下限(epoch毫秒)，为SceneRecord.NO_TIME时与to一起表示不限
+     * @param to 采集时间上限(epoch毫秒)
+     * @param keyword 关键字，为null时不限
+     */
+    public synchronized List<SceneRecord> query(BoundingBox aoi, long from, long to, String keyword) {
+        boolean timed = from != SceneRecord.NO_TIME || to != Long.MAX_VALUE;
+        ensureIndexed();
+
+        //先用最具选择性的索引取候选，再逐条检查全部条件
+        int[] candidates;
+        boolean scanDelta = true;
+        if (keyword != null) {
+            candidates = keywordSlots(keyword);
+            scanDelta = false;
+        } else if (aoi != null) {
+            int[] ids = spatial.queryIds(aoi.getMinimumX(), aoi.getMinimumY(), aoi.getMaximumX(), aoi.getMaximumY());
+            candidates = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                candidates[i] = spatialSlots[ids[i]];
+            }
+        } else if (timed) {
+            candidates = timeSlots(from, to);
+        } else {
+            candidates = null;
+        }
+
+        List<SceneRecord> result = new ArrayList<SceneRecord>();
+        if (candidates == null) {
+            for (SceneRecord record : slots) {
+                if (record != null) {
+                    result.add(record);
+                }
+            }
+            return result;
+        }
+        for (int slot : candidates) {
+            SceneRecord record = slots.get(slot);
+            if (record != null && matches(record, aoi, timed, from, to, keyword)) {
+                result.add(record);
+            }
+        }
+        if (scanDelta) {
+            for (int slot = indexed; slot < slots.size(); slot++) {
+                SceneRecord record = slots.get(slot);
+                if (record != null && matches(record, aoi, timed, from, to, keyword)) {
+                    result.add(record);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(SceneRecord record, BoundingBox aoi, boolean timed, long from, long to,
+                                   String keyword) {
+        return (aoi == null || record.intersects(aoi))
+                && (!timed || record.overlaps(from, to))
+                && (keyword == null || record.hasKeyword(keyword));
+    }
+
+    private int[] keywordSlots(String keyword) {
+        List<Integer> posting = byKeyword.get(keyword.toLowerCase(Locale.ROOT));
+        if (posting == null) {
+            return new int[0];
+        }
+        int[] result = new int[posting.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = posting.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 开始时间在[from - maxDuration, to]内的记录，按写入顺序
+     */
+    private int[] timeSlots(long from, long to) {
+        long low = from < Long.MIN_VALUE + maxDuration ? Long.MIN_VALUE : from - maxDuration;
+        int start = lowerBound(timeStarts, low);
+        int end = to == Long.MAX_VALUE ? timeStarts.length : lowerBound(timeStarts, to + 1);
+        int[] result = Arrays.copyOfRange(timeSlots, start, Math.max(start, end));
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int lowerBound(long[] values, long key) {
+        int low = 0, high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 新写入的记录较多时重建范围和时间索引
+     */
+    private void ensureIndexed() {
+        int delta = slots.size() - indexed;
+        if (spatial != null && (delta <= MIN_REBUILD || delta <= indexed / 8)) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> paths = new ArrayList<String>();
+        List<BoundingBox> boxes = new ArrayList<BoundingBox>();
+        int[] spaceSlots = new int[slots.size()];
+        int[] order = new int[slots.size()];
+        double[] starts = new double[slots.size()];
+        int timed = 0;
+        long duration = 0;
+        for (int slot = 0; slot < slots.size(); slot++) {
+            SceneRecord record = slots.get(slot);
+            if (record == null) {
+                continue;
+            }
+            if (record.getBbox() != null) {
+                spaceSlots[paths.size()] = slot;
+                paths.add(record.getPath());
+                boxes.add(record.getBbox());
+            }
+            if (record.hasAcquisitionTime()) {
+                //epoch毫秒小于2^53，转为double不损失精度
+                starts[slot] = record.getAcquisitionStart();
+                order[timed++] = slot;
+                duration = Math.max(duration, record.getAcquisitionEnd() - record.getAcquisitionStart());
+            }
+        }
+        FootprintIndex.sort(order, starts, 0, timed - 1);
+        timeSlots = Arrays.copyOf(order, timed);
+        timeStarts = new long[timed];
+        for (int i = 0; i < timed; i++) {
+            timeStarts[i] = slots.get(timeSlots[i]).getAcquisitionStart();
+        }
+        maxDuration = duration;
+        spatial = FootprintIndex.build(paths, boxes);
+        spatialSlots = Arrays.copyOf(spaceSlots, paths.size());
+        indexed = slots.size();
+        log.debug("影像目录索引重建完成, " + size() + "景, " + (System.nanoTime() - start) / 1000000 + "ms.");
+    }
+
+    /**
+     * 只保留有效记录重写目录文件，先写临时文件再替换
+     * @return 是否整理成功，失败时原文件不变
+     */
+    public synchronized boolean compact() {
+        List<SceneRecord> live = new ArrayList<SceneRecord>(size());
+        for (SceneRecord record : slots) {
+            if (record != null) {
+                live.add(record);
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(tmp, "rw");
+            out.setLength(0);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            for (SceneRecord record : live) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(payload);
+                data.writeByte(OP_PUT);
+                writeRecord(data, record);
+                data.close();
+                frame(bytes, payload.toByteArray());
+                if (bytes.size() > 1 << 20) {
+                    out.write(bytes.toByteArray());
+                    bytes.reset();
+                }
+            }
+            out.write(bytes.toByteArray());
+            out.getChannel().force(true);
+            out.close();
+            out = null;
+            raf.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("整理影像目录失败: " + file + ", " + e.getMessage(), e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    log.warn(ex.getMessage());
+                }
+            }
+            tmp.delete();
+            //原文件未被替换，重新打开以便继续追加，但整理本身失败
+            reopen();
+            return false;
+        }
+        slots = new ArrayList<SceneRecord>(live.size());
+        byPath = new HashMap<String, Integer>();
+        byKeyword = new HashMap<String, List<Integer>>();
+        dead = 0;
+        indexed = 0;
+        spatial = null;
+        for (SceneRecord record : live) {
+            apply(record);
+        }
+        return reopen();
+    }
+
+    private boolean reopen() {
+        try {
+            if (raf.getChannel().isOpen()) {
+                return true;
+            }
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(raf.length());
+            return true;
+        } catch (IOException e) {
+            log.error("打开影像目录失败: " + file + ", " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        long end = raf.length();
+        raf.seek(end);
+        try {
+            raf.write(bytes);
+            raf.getChannel().force(false);
+        } catch (IOException e) {
+            //去掉写了一半的记录
+            raf.setLength(end);
+            throw e;
+        }
+    }
+
+    private static void frame(ByteArrayOutputStream bytes, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+        out.flush();
+    }
+
+    private void apply(SceneRecord record) {
+        unlink(record.getPath());
+        int slot = slots.size();
+        slots.add(record);
+        byPath.put(record.getPath(), slot);
+        for (String keyword : record.getKeywords()) {
+            String key = keyword.toLowerCase(Locale.ROOT);
+            List<Integer> posting = byKeyword.get(key);
+            if (posting == null) {
+                posting = new ArrayList<Integer>(4);
+                byKeyword.put(key, posting);
+            }
+            if (posting.isEmpty() || posting.get(posting.size() - 1) != slot) {
+                posting.add(slot);
+            }
+        }
+    }
+
+    private void unlink(String path) {
+        Integer slot = byPath.remove(path);
+        if (slot != null) {
+            slots.set(slot, null);
+            dead++;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, SceneRecord record) throws IOException {
+        out.writeUTF(record.getPath());
+        BoundingBox bbox = record.getBbox();
+        out.writeBoolean(bbox != null);
+        if (bbox != null) {
+            out.writeDouble(bbox.getMinimumX());
+            out.writeDouble(bbox.getMinimumY());
+            out.writeDouble(bbox.getMaximumX());
+            out.writeDouble(bbox.getMaximumY());
+        }
+        writeNullable(out, record.getCrs());
+        out.writeInt(record.getBandCount());
+        out.writeInt(record.getMinZoom());
+        out.writeInt(record.getMaxZoom());
+        out.writeLong(record.getAcquisitionStart());
+        out.writeLong(record.getAcquisitionEnd());
+        writeNullable(out, record.getHdfsLocation());
+        String[] keywords = record.getKeywords();
+        out.writeInt(keywords.length);
+        for (String keyword : keywords) {
+            out.writeUTF(keyword);
+        }
+    }
+
+    private static SceneRecord readRecord(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        BoundingBox bbox = in.readBoolean()
+                ? new BoundingBox(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()) : null;
+        String crs = readNullable(in);
+        int bandCount = in.readInt();
+        int minZoom = in.readInt();
+        int maxZoom = in.readInt();
+        long start = in.readLong();
+        long end = in.readLong();
+        String hdfsLocation = readNullable(in);
+        String[] keywords = new String[in.readInt()];
+        for (int i = 0; i < keywords.length; i++) {
+            keywords[i] = in.readUTF();
+        }
+        return new SceneRecord(path, bbox, crs, bandCount, minZoom, maxZoom, start, end, hdfsLocation, keywords);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 影像目录中的一景：路径、范围、坐标系、波段数、缩放级别、采集时间和HDFS位置
+ */
+
+package ai.geodata.common;
+
+import java.util.Arrays;
+
+/**
+ * 不可变。范围为null表示未知；采集时间为epoch毫秒，未知时两端均为NO_TIME
+ */
+public class SceneRecord {
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final String path;
+    private final BoundingBox bbox;
+    private final String crs;
+    private final int bandCount;
+    private final int minZoom;
+    private final int maxZoom;
+    private final long acquisitionStart;
+    private final long acquisitionEnd;
+    private final String hdfsLocation;
+    private final String[] keywords;
+
+    /**
+     * @param path 影像路径，目录中的主键
+     * @param bbox 范围，坐标系为crs
+     * @param crs 坐标系，如EPSG:4326
+     * @param bandCount 波段数
+     * @param minZoom 瓦片最小缩放级别，未切片时为-1
+     * @param maxZoom 瓦片最大缩放级别，未切片时为-1
+     * @param acquisitionStart 采集开始时间(epoch毫秒)，未知时为NO_TIME
+     * @param acquisitionEnd 采集结束时间(epoch毫秒)，未知时为NO_TIME
+     * @param hdfsLocation HDFS上的位置，未上传时为null
+     * @param keywords 关键字，如项目、传感器、数据名称
+     */
+    public SceneRecord(String path, BoundingBox bbox, String crs, int bandCount, int minZoom, int maxZoom,
+                       long acquisitionStart, long acquisitionEnd, String hdfsLocation, String[] keywords) {
+        if (path == null) {
+            throw new IllegalArgumentException("path must not be null");
+        }
+        if ((acquisitionStart == NO_TIME) != (acquisitionEnd == NO_TIME) || acquisitionStart > acquisitionEnd) {
+            throw new IllegalArgumentException("acquisition start must not be after end");
+        }
+        this.path = path;
+        this.bbox = bbox;
+        this.crs = crs;
+        this.bandCount = bandCount;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.acquisitionStart = acquisitionStart;
+        this.acquisitionEnd = acquisitionEnd;
+        this.hdfsLocation = hdfsLocation;
+        this.keywords = keywords == null ? new String[0] : keywords.clone();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public BoundingBox getBbox() {
+        return bbox;
+    }
+
+    public String getCrs() {
+        return crs;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public long getAcquisitionStart() {
+        return acquisitionStart;
+    }
+
+    public long getAcquisitionEnd() {
+        return acquisitionEnd;
+    }
+
+    public boolean hasAcquisitionTime() {
+        return acquisitionStart != NO_TIME;
+    }
+
+    public String getHdfsLocation() {
+        return hdfsLocation;
+    }
+
+    public String[] getKeywords() {
+        return keywords.clone();
+    }
+
+    /**
+     * @return 范围与bbox相交(含边界接触)
+     */
+    public boolean intersects(BoundingBox other) {
+        //BoundingBox.intersects不含边界接触，与FootprintIndex不一致，这里单独判断
+        return bbox != null && bbox.getMinimumX() <= other.getMaximumX() && bbox.getMaximumX() >= other.getMinimumX()
+                && bbox.getMinimumY() <= other.getMaximumY() && bbox.getMaximumY() >= other.getMinimumY();
+    }
+
+    /**
+     * @return 采集时间与[from, to]有重叠
+     */
+    public boolean overlaps(long from, long to) {
+        return hasAcquisitionTime() && acquisitionStart <= to && acquisitionEnd >= from;
+    }
+
+    /**
+     * @return 是否有该关键字(不区分大小写)
+     */
+    public boolean hasKeyword(String keyword) {
+        for (String word : keywords) {
+            if (word.equalsIgnoreCase(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + bbox + " " + crs + ", " + bandCount + "波段, 级别" + minZoom + "-" + maxZoom
+                + (hasAcquisitionTime() ? ", 采集" + acquisitionStart + "-" + acquisitionEnd : "")
+                + (hdfsLocation == null ? "" : ", " + hdfsLocation) + " " + Arrays.toString(keywords);
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 分块传输的本地日志，记录已确认写入的块及其CRC，传输中断后从最后一个完好的块继续
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * 文件结构：magic, version, source(UTF), target(UTF), long length, long modified, int chunkSize，
+ * 之后每个已确认的块一条记录 int length, long crc，块按顺序从0开始
+ */
+public class TransferJournal {
+    protected static Logger log = Logger.getLogger(TransferJournal.class);
+
+    private static final int MAGIC = 0x52534A4C;  //"RSJL"
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 12;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final long headerSize;
+    private final int chunkSize;
+    private int chunks = 0;
+    private long acknowledged = 0;
+    private int[] lengths = new int[16];
+    private long[] crcs = new long[16];
+
+    private TransferJournal(File file, RandomAccessFile raf, long headerSize, int chunkSize) {
+        this.file = file;
+        this.raf = raf;
+        this.headerSize = headerSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 打开日志，已有日志与本次传输的源文件(长度、修改时间)、目标或块大小不一致时重新开始
+     * @param file 日志文件
+     * @param source 源路径
+     * @param target 目标路径
+     * @param length 源文件长度
+     * @param modified 源文件修改时间
+     * @param chunkSize 块大小
+     */
+    public static TransferJournal open(File file, String source, String target, long length, long modified,
+                                       int chunkSize) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeUTF(source);
+        header.writeUTF(target);
+        header.writeLong(length);
+        header.writeLong(modified);
+        header.writeInt(chunkSize);
+        header.close();
+        byte[] expected = bytes.toByteArray();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        TransferJournal journal = new TransferJournal(file, raf, expected.length, chunkSize);
+        try {
+            byte[] actual = new byte[expected.length];
+            if (raf.length() >= expected.length) {
+                raf.readFully(actual);
+            }
+            if (Arrays.equals(actual, expected)) {
+                //末尾不完整的记录视为未确认
+                long records = (raf.length() - expected.length) / RECORD_SIZE;
+                for (long i = 0; i < records; i++) {
+                    journal.add(raf.readInt(), raf.readLong());
+                }
+                raf.setLength(expected.length + records * RECORD_SIZE);
+            } else {
+                raf.setLength(0);
+                raf.write(expected);
+                raf.getChannel().force(true);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return 已确认的块数
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return 已确认的字节数，即续传的起始位置
+     */
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public int getLength(int chunk) {
+        return lengths[chunk];
+    }
+
+    public long getCrc(int chunk) {
+        return crcs[chunk];
+    }
+
+    /**
+     * 确认一个块已写入目标，记录落盘后返回
+     */
+    public void acknowledge(int length, long crc) throws IOException {
+        raf.seek(headerSize + (long) chunks * RECORD_SIZE);
+        raf.writeInt(length);
+        raf.writeLong(crc);
+        raf.getChannel().force(false);
+        add(length, crc);
+    }
+
+    /**
+     * 只保留前n个块的记录
+     */
+    public void truncate(int n) throws IOException {
+        if (n >= chunks) {
+            return;
+        }
+        raf.setLength(headerSize + (long) n * RECORD_SIZE);
+        raf.getChannel().force(false);
+        chunks = n;
+        acknowledged = 0;
+        for (int i = 0; i < n; i++) {
+            acknowledged += lengths[i];
+        }
+    }
+
+    /**
+     * 保留不超过length字节的完整块
+     * @return 保留的字节数
+     */
+    public long truncateTo(long length) throws IOException {
+        int n = 0;
+        long offset = 0;
+        while (n < chunks && offset + lengths[n] <= length) {
+            offset += lengths[n];
+            n++;
+        }
+        truncate(n);
+        return acknowledged;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * 传输完成后删除日志
+     */
+    public void delete() {
+        close();
+        if (!file.delete() && file.exists()) {
+            log.warn("无法删除传输日志: " + file);
+        }
+    }
+
+    private void add(int length, long crc) {
+        if (chunks == lengths.length) {
+            lengths = Arrays.copyOf(lengths, chunks * 2);
+            crcs = Arrays.copyOf(crcs, chunks * 2);
+        }
+        lengths[chunks] = length;
+        crcs[chunks] = crc;
+        chunks++;
+        acknowledged += length;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 批量传输的汇总
+ */
+
+package ai.geodata.common;
+
+import java.util.List;
+
+public class TransferReport {
+    private final List<TransferResult> results;
+    private final long elapsedMillis;
+
+    public TransferReport(List<TransferResult> results, long elapsedMillis) {
+        this.results = results;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<TransferResult> getResults() {
+        return results;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public int getSucceeded() {
+        int count = 0;
+        for (TransferResult result : results) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 是否全部成功
+     */
+    public boolean isSuccess() {
+        return getSucceeded() == results.size();
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (TransferResult result : results) {
+            bytes += result.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return 按总耗时计算的整体传输速度(MB/s)
+     */
+    public double getMBPerSecond() {
+        return elapsedMillis == 0 ? 0 : getBytes() / 1024.0 / 1024.0 * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("传输 %d/%d 成功, %.2f MB, 耗时 %d ms, %.2f MB/s",
+                getSucceeded(), results.size(), getBytes() / 1024.0 / 1024.0, elapsedMillis, getMBPerSecond());
+    }
+}
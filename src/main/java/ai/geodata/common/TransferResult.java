@@ -0,0 +1,66 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 单个文件的传输结果
+ */
+
+package ai.geodata.common;
+
+public class TransferResult {
+    private final String source;
+    private final String target;
+    private final boolean success;
+    private final long bytes;
+    private final long millis;
+    private final String error;
+
+    public TransferResult(String source, String target, boolean success, long bytes, long millis, String error) {
+        this.source = source;
+        this.target = target;
+        this.success = success;
+        this.bytes = bytes;
+        this.millis = millis;
+        this.error = error;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return 传输的字节数
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return 传输速度(MB/s)
+     */
+    public double getMBPerSecond() {
+        return millis == 0 ? 0 : bytes / 1024.0 / 1024.0 * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return success
+                ? String.format("%s -> %s, %d bytes, %d ms, %.2f MB/s", source, target, bytes, millis, getMBPerSecond())
+                : String.format("%s -> %s 失败: %s", source, target, error);
+    }
+}
@@ -0,0 +1,475 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 根据中央目录随机读取ZIP，多线程解压全部或按通配符选出的文件
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 只读取中央目录和选中文件的数据，不需要顺序读取整个ZIP；支持ZIP64。
+ * 数据来源和解压目标通过Source/Target抽象，本地文件和HDFS都可以使用。
+ * 包含绝对路径或..的文件名会被拒绝，避免写到目标目录之外(zip slip)。
+ */
+public class ZipExtractor implements Closeable {
+    protected static Logger log = Logger.getLogger(ZipExtractor.class);
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset GBK = Charset.forName("GBK");
+
+    private final Source source;
+    private final List<ZipItem> items;
+
+    /**
+     * 可定位读取的ZIP数据来源，readFully会被多个线程同时调用
+     */
+    public interface Source extends Closeable {
+        long length() throws IOException;
+
+        void readFully(long position, byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 解压目标，create会被多个线程同时调用
+     */
+    public interface Target {
+        /**
+         * @param name 已检查过的相对路径，以/分隔
+         */
+        OutputStream create(String name) throws IOException;
+
+        void mkdirs(String name) throws IOException;
+    }
+
+    /**
+     * 读取中央目录，之后由ZipExtractor负责关闭source；读取失败时source在抛出异常前关闭
+     */
+    public ZipExtractor(Source source) throws IOException {
+        this.source = source;
+        boolean success = false;
+        try {
+            this.items = readCentralDirectory();
+            success = true;
+        } finally {
+            if (!success) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * @return ZIP中的全部文件名
+     */
+    public List<String> list() {
+        List<String> names = new ArrayList<String>(items.size());
+        for (ZipItem item : items) {
+            names.add(item.name);
+        }
+        return names;
+    }
+
+    /**
+     * 多线程解压
+     * @param target 解压目标
+     * @param glob 通配符，*不跨目录，**可跨目录，?匹配一个字符；null时解压全部
+     * @param threads 同时解压的文件数
+     * @return 每个文件的结果(bytes为解压后长度)及整体速度
+     */
+    public TransferReport extract(final Target target, String glob, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        Pattern pattern = glob == null ? null : globToPattern(glob);
+        final List<ZipItem> selected = new ArrayList<ZipItem>();
+        for (ZipItem item : items) {
+            if (pattern == null || pattern.matcher(item.name).matches()) {
+                selected.add(item);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, selected.size())));
+        long start = System.nanoTime();
+        List<Future<TransferResult>> futures = new ArrayList<Future<TransferResult>>(selected.size());
+        try {
+            for (final ZipItem item : selected) {
+                futures.add(pool.submit(new Callable<TransferResult>() {
+                    @Override
+                    public TransferResult call() {
+                        return extract(item, target);
+                    }
+                }));
+            }
+            List<TransferResult> results = new ArrayList<TransferResult>(selected.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    TransferResult result = futures.get(i).get();
+                    if (!result.isSuccess()) {
+                        log.error(result);
+                    }
+                    results.add(result);
+                } catch (ExecutionException e) {
+                    log.error(e.getMessage(), e);
+                    results.add(new TransferResult(selected.get(i).name, selected.get(i).name, false, 0, 0,
+                            String.valueOf(e.getCause())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("解压被中断.");
+                    break;
+                }
+            }
+            TransferReport report = new TransferReport(results, (System.nanoTime() - start) / 1000000);
+            log.info(report);
+            return report;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private TransferResult extract(ZipItem item, Target target) {
+        long start = System.nanoTime();
+        String name = safeName(item.name);
+        if (name == null) {
+            return new TransferResult(item.name, item.name, false, 0, 0, "不安全的文件名: " + item.name);
+        }
+        OutputStream out = null;
+        try {
+            if (item.name.endsWith("/")) {
+                target.mkdirs(name);
+                return new TransferResult(item.name, name, true, 0, (System.nanoTime() - start) / 1000000, null);
+            }
+            byte[] local = new byte[30];
+            source.readFully(item.offset, local, 0, local.length);
+            ByteBuffer header = ByteBuffer.wrap(local).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != LOCAL_HEADER) {
+                throw new IOException("本地文件头错误");
+            }
+            long dataOffset = item.offset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+
+            out = target.create(name);
+            CRC32 crc = new CRC32();
+            long size;
+            if (item.method == 0) {
+                size = copyStored(dataOffset, item.compressedSize, out, crc);
+            } else if (item.method == 8) {
+                size = inflate(dataOffset, item.compressedSize, out, crc);
+            } else {
+                throw new IOException("不支持的压缩方式: " + item.method);
+            }
+            out.close();
+            out = null;
+            if (size != item.size || crc.getValue() != item.crc) {
+                throw new IOException("CRC或长度校验失败");
+            }
+            return new TransferResult(item.name, name, true, size, (System.nanoTime() - start) / 1000000, null);
+        } catch (IOException e) {
+            return new TransferResult(item.name, name, false, 0, (System.nanoTime() - start) / 1000000,
+                    e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private long copyStored(long offset, long length, OutputStream out, CRC32 crc) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (long done = 0; done < length; ) {
+            int n = (int) Math.min(buffer.length, length - done);
+            source.readFully(offset + done, buffer, 0, n);
+            crc.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            done += n;
+        }
+        return length;
+    }
+
+    private long inflate(long offset, long length, OutputStream out, CRC32 crc) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            long read = 0;
+            long size = 0;
+            boolean dummy = false;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (read < length) {
+                        int n = (int) Math.min(input.length, length - read);
+                        source.readFully(offset + read, input, 0, n);
+                        read += n;
+                        inflater.setInput(input, 0, n);
+                    } else if (!dummy) {
+                        //raw deflate流末尾需要一个额外字节才能结束
+                        inflater.setInput(new byte[1]);
+                        dummy = true;
+                    } else {
+                        throw new IOException("压缩数据不完整");
+                    }
+                }
+                int n = inflater.inflate(output);
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new IOException("压缩数据错误");
+                }
+                crc.update(output, 0, n);
+                out.write(output, 0, n);
+                size += n;
+            }
+            return size;
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据错误: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 找到结束记录(有ZIP64定位记录时使用ZIP64结束记录)，读取整个中央目录
+     */
+    private List<ZipItem> readCentralDirectory() throws IOException {
+        long length = source.length();
+        int tailLength = (int) Math.min(length, 22 + 0xFFFF + 20);
+        byte[] tail = new byte[tailLength];
+        source.readFully(length - tailLength, tail, 0, tailLength);
+        ByteBuffer tailBuffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int end = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tailBuffer.getInt(i) == END_OF_CENTRAL) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("不是ZIP文件");
+        }
+        long count = tailBuffer.getShort(end + 10) & 0xFFFF;
+        long centralSize = tailBuffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long centralOffset = tailBuffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (end >= 20 && tailBuffer.getInt(end - 20) == ZIP64_END_LOCATOR) {
+            byte[] end64 = new byte[56];
+            source.readFully(tailBuffer.getLong(end - 12), end64, 0, end64.length);
+            ByteBuffer end64Buffer = ByteBuffer.wrap(end64).order(ByteOrder.LITTLE_ENDIAN);
+            if (end64Buffer.getInt(0) != ZIP64_END_OF_CENTRAL) {
+                throw new IOException("ZIP64结束记录错误");
+            }
+            count = end64Buffer.getLong(32);
+            centralSize = end64Buffer.getLong(40);
+            centralOffset = end64Buffer.getLong(48);
+        }
+        if (centralSize > Integer.MAX_VALUE || centralOffset + centralSize > length) {
+            throw new IOException("中央目录错误");
+        }
+
+        byte[] central = new byte[(int) centralSize];
+        source.readFully(centralOffset, central, 0, central.length);
+        ByteBuffer buffer = ByteBuffer.wrap(central).order(ByteOrder.LITTLE_ENDIAN);
+        List<ZipItem> result = new ArrayList<ZipItem>((int) Math.min(count, 1 << 20));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + 46 > central.length || buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("中央目录错误");
+            }
+            ZipItem item = new ZipItem();
+            int flags = buffer.getShort(position + 8) & 0xFFFF;
+            item.method = buffer.getShort(position + 10) & 0xFFFF;
+            item.crc = buffer.getInt(position + 16) & 0xFFFFFFFFL;
+            item.compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            item.size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            item.offset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+            //未设置UTF-8标志的文件名一般来自中文Windows
+            item.name = new String(central, position + 46, nameLength, (flags & (1 << 11)) != 0 ? UTF8 : GBK);
+            readZip64Extra(buffer, position + 46 + nameLength, extraLength, item);
+            result.add(item);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    /**
+     * 值为0xFFFFFFFF的字段按原始长度、压缩长度、偏移的顺序从ZIP64扩展字段读取
+     */
+    private static void readZip64Extra(ByteBuffer buffer, int position, int length, ZipItem item) {
+        int end = position + length;
+        while (position + 4 <= end) {
+            int id = buffer.getShort(position) & 0xFFFF;
+            int size = buffer.getShort(position + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA) {
+                int field = position + 4;
+                if (item.size == ZIP64_MAGIC && field + 8 <= end) {
+                    item.size = buffer.getLong(field);
+                    field += 8;
+                }
+                if (item.compressedSize == ZIP64_MAGIC && field + 8 <= end) {
+                    item.compressedSize = buffer.getLong(field);
+                    field += 8;
+                }
+                if (item.offset == ZIP64_MAGIC && field + 8 <= end) {
+                    item.offset = buffer.getLong(field);
+                }
+                return;
+            }
+            position += 4 + size;
+        }
+    }
+
+    /**
+     * @return 规范化后的相对路径，绝对路径或包含..时返回null
+     */
+    static String safeName(String name) {
+        String normalized = name.replace('\\', '/');
+        if (normalized.startsWith("/") || normalized.matches("^[A-Za-z]:.*")) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String part : normalized.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                return null;
+            }
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(part);
+        }
+        return builder.length() == 0 ? null : builder.toString();
+    }
+
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * 本地ZIP文件，多个线程通过同一个FileChannel定位读取
+     */
+    public static Source fileSource(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel channel = raf.getChannel();
+        return new Source() {
+            @Override
+            public long length() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+                ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+                while (target.hasRemaining()) {
+                    if (channel.read(target, position + target.position() - offset) < 0) {
+                        throw new IOException("读取超出文件末尾");
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                raf.close();
+            }
+        };
+    }
+
+    /**
+     * 解压到本地目录
+     */
+    public static Target directoryTarget(final File dir) throws IOException {
+        final String root = dir.getCanonicalPath() + File.separator;
+        return new Target() {
+            @Override
+            public OutputStream create(String name) throws IOException {
+                File file = resolve(name);
+                File parent = file.getParentFile();
+                if (!parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("无法创建目录: " + parent);
+                }
+                return new FileOutputStream(file);
+            }
+
+            @Override
+            public void mkdirs(String name) throws IOException {
+                File file = resolve(name);
+                if (!file.mkdirs() && !file.isDirectory()) {
+                    throw new IOException("无法创建目录: " + file);
+                }
+            }
+
+            private File resolve(String name) throws IOException {
+                File file = new File(dir, name);
+                if (!file.getCanonicalPath().startsWith(root)) {
+                    throw new IOException("路径超出目标目录: " + name);
+                }
+                return file;
+            }
+        };
+    }
+
+    private static class ZipItem {
+        String name;
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+    }
+}
@@ -0,0 +1,632 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 多线程压缩的ZIP打包，按顺序流式写出，可直接写入HDFS输出流
+ */
+
+package ai.geodata.common;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 文件按块读取，各块由线程池独立deflate(以前一块末尾32KB作为字典，块之间SYNC_FLUSH)，
+ * 再按顺序拼接为一个完整的deflate流；CRC和长度写在数据之后的data descriptor中，
+ * 因此输出流不需要支持定位。已经压缩过的文件(jpg/png、压缩的TIFF等)直接以STORED方式存储，
+ * 其CRC由线程池提前计算。超过4GB的文件、偏移和超过65535个文件时使用ZIP64扩展。输出流不会被关闭。
+ */
+public class ZipPackager {
+    protected static Logger log = Logger.getLogger(ZipPackager.class);
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int STORED_BUFFER_SIZE = 1024 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //本身已压缩、再deflate几乎没有收益的格式
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "jp2", "j2k", "ecw", "sid",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "pack"));
+
+    private final int threads;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int chunkSize = 1024 * 1024;
+
+    /**
+     * @param threads 压缩线程数
+     */
+    public ZipPackager(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param level 压缩级别，0到9
+     */
+    public void setLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Level must be between 0 and 9");
+        }
+        this.level = level;
+    }
+
+    /**
+     * @param chunkSize 每个压缩任务的数据量，不小于64KB
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 64 * 1024) {
+            throw new IllegalArgumentException("Chunk size must be at least 64KB");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 将整个目录打包
+     * @param srcDir 目录
+     * @param out 输出流，完成后不关闭
+     * @param keepDirStructure true保留目录结构，false所有文件放在根目录下
+     * @return 写出的字节数
+     */
+    public long pack(String srcDir, OutputStream out, boolean keepDirStructure) throws IOException {
+        File sourceFile = new File(srcDir);
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        collect(sourceFile, sourceFile.getName(), keepDirStructure, files, names);
+        return pack(files, names, out);
+    }
+
+    /**
+     * 将文件打包，目录(名称以/结尾)作为空目录项
+     * @param files 文件
+     * @param names 与files一一对应的包内名称
+     * @param out 输出流，完成后不关闭
+     * @return 写出的字节数
+     */
+    public long pack(final List<File> files, List<String> names, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        CountingOutputStream output = new CountingOutputStream(out);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Entry> entries = new ArrayList<Entry>(files.size());
+        //尚未写出的压缩块，按顺序写出
+        Deque<Chunk> pending = new ArrayDeque<Chunk>();
+        //STORED文件的CRC，提前threads个文件提交计算
+        final List<Future<Long>> crcs = new ArrayList<Future<Long>>(files.size());
+        boolean[] stored = new boolean[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            stored[i] = files.get(i).isFile() && isCompressed(files.get(i));
+            crcs.add(null);
+        }
+        int crcSubmitted = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                Entry entry = new Entry(names.get(i), file.lastModified());
+                entries.add(entry);
+                for (; crcSubmitted < files.size() && crcSubmitted <= i + threads; crcSubmitted++) {
+                    if (stored[crcSubmitted]) {
+                        final File crcFile = files.get(crcSubmitted);
+                        crcs.set(crcSubmitted, pool.submit(new Callable<Long>() {
+                            @Override
+                            public Long call() throws IOException {
+                                return crc(crcFile);
+                            }
+                        }));
+                    }
+                }
+
+                if (file.isDirectory()) {
+                    drain(pending, 0, output);
+                    entry.method = 0;
+                    writeLocalHeader(entry, output);
+                } else if (stored[i]) {
+                    drain(pending, 0, output);
+                    entry.method = 0;
+                    entry.crc = get(crcs.get(i));
+                    entry.size = file.length();
+                    entry.compressedSize = entry.size;
+                    entry.zip64 = entry.size >= ZIP64_MAGIC;
+                    writeLocalHeader(entry, output);
+                    copy(file, output);
+                } else {
+                    entry.method = 8;
+                    entry.flags |= FLAG_DESCRIPTOR;
+                    //原始长度超过4GB时data descriptor使用8字节长度
+                    entry.zip64 = file.length() >= ZIP64_MAGIC;
+                    submitChunks(file, entry, pool, pending, output);
+                }
+            }
+            drain(pending, 0, output);
+
+            long centralOffset = output.count;
+            for (Entry entry : entries) {
+                writeCentralHeader(entry, output);
+            }
+            writeEnd(entries.size(), centralOffset, output.count - centralOffset, output);
+            output.flush();
+            log.info("打包" + entries.size() + "个文件完成，" + output.count + "字节，耗时："
+                    + (System.currentTimeMillis() - start) + " ms");
+            return output.count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 按块读取文件并提交压缩，未写出的块过多时先写出最早的块
+     */
+    private void submitChunks(File file, final Entry entry, ExecutorService pool, Deque<Chunk> pending,
+                              CountingOutputStream output) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long remaining = file.length();
+            byte[] previous = null;
+            int previousLength = 0;
+            boolean first = true;
+            while (true) {
+                final byte[] raw = new byte[chunkSize];
+                final int length = readFully(in, raw);
+                remaining -= length;
+                final boolean last = length < chunkSize || remaining <= 0;
+                final byte[] dictionary = previous;
+                final int dictionaryLength = previousLength;
+                Chunk chunk = new Chunk(entry, raw, length, first, last);
+                chunk.compressed = pool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        return deflate(raw, length, dictionary, dictionaryLength, last, level);
+                    }
+                });
+                pending.addLast(chunk);
+                drain(pending, threads * 2, output);
+                if (last) {
+                    return;
+                }
+                previous = raw;
+                previousLength = length;
+                first = false;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 按顺序写出压缩块，直到未写出的块不超过limit个
+     */
+    private void drain(Deque<Chunk> pending, int limit, CountingOutputStream output) throws IOException {
+        while (pending.size() > limit) {
+            Chunk chunk = pending.removeFirst();
+            Entry entry = chunk.entry;
+            if (chunk.first) {
+                writeLocalHeader(entry, output);
+                entry.crc32 = new CRC32();
+            }
+            byte[] compressed = get(chunk.compressed);
+            output.write(compressed);
+            entry.crc32.update(chunk.raw, 0, chunk.length);
+            entry.size += chunk.length;
+            entry.compressedSize += compressed.length;
+            if (chunk.last) {
+                entry.crc = entry.crc32.getValue();
+                entry.crc32 = null;
+                writeDataDescriptor(entry, output);
+            }
+        }
+    }
+
+    /**
+     * 独立压缩一块数据为raw deflate，非最后一块以SYNC_FLUSH结束以便与后续块拼接
+     */
+    private static byte[] deflate(byte[] raw, int length, byte[] dictionary, int dictionaryLength,
+                                  boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int n = Math.min(dictionaryLength, DICTIONARY_SIZE);
+                deflater.setDictionary(dictionary, dictionaryLength - n, n);
+            }
+            deflater.setInput(raw, 0, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(Entry entry, CountingOutputStream output) throws IOException {
+        entry.offset = output.count;
+        boolean descriptor = (entry.flags & FLAG_DESCRIPTOR) != 0;
+        ByteBuffer header = buffer(30 + entry.name.length + (entry.zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (entry.zip64 ? 45 : 20));
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt(descriptor ? 0 : (int) entry.crc);
+        if (entry.zip64) {
+            //长度写在ZIP64扩展字段中，使用data descriptor时为0
+            header.putInt((int) ZIP64_MAGIC);
+            header.putInt((int) ZIP64_MAGIC);
+        } else {
+            header.putInt(descriptor ? 0 : (int) entry.compressedSize);
+            header.putInt(descriptor ? 0 : (int) entry.size);
+        }
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (entry.zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (entry.zip64) {
+            header.putShort((short) ZIP64_EXTRA);
+            header.putShort((short) 16);
+            header.putLong(descriptor ? 0 : entry.size);
+            header.putLong(descriptor ? 0 : entry.compressedSize);
+        }
+        output.write(header.array());
+    }
+
+    private void writeDataDescriptor(Entry entry, CountingOutputStream output) throws IOException {
+        if (!entry.zip64 && (entry.compressedSize >= ZIP64_MAGIC || entry.size >= ZIP64_MAGIC)) {
+            throw new IOException("压缩后超过4GB，需要ZIP64: " + entry);
+        }
+        ByteBuffer descriptor = buffer(entry.zip64 ? 24 : 16);
+        descriptor.putInt(DATA_DESCRIPTOR);
+        descriptor.putInt((int) entry.crc);
+        if (entry.zip64) {
+            descriptor.putLong(entry.compressedSize);
+            descriptor.putLong(entry.size);
+        } else {
+            descriptor.putInt((int) entry.compressedSize);
+            descriptor.putInt((int) entry.size);
+        }
+        output.write(descriptor.array());
+    }
+
+    /**
+     * 超过4GB的长度和偏移写为0xFFFFFFFF，实际值按原始长度、压缩长度、偏移的顺序写在ZIP64扩展字段中
+     */
+    private void writeCentralHeader(Entry entry, CountingOutputStream output) throws IOException {
+        boolean bigSize = entry.size >= ZIP64_MAGIC;
+        boolean bigCompressed = entry.compressedSize >= ZIP64_MAGIC;
+        boolean bigOffset = entry.offset >= ZIP64_MAGIC;
+        int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        boolean zip64 = extra > 0 || entry.zip64;
+        ByteBuffer header = buffer(46 + entry.name.length + (extra > 0 ? extra + 4 : 0));
+        header.putInt(CENTRAL_HEADER);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (bigCompressed ? ZIP64_MAGIC : entry.compressedSize));
+        header.putInt((int) (bigSize ? ZIP64_MAGIC : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (extra > 0 ? extra + 4 : 0));
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(entry.isDirectory() ? 0x10 : 0);
+        header.putInt((int) (bigOffset ? ZIP64_MAGIC : entry.offset));
+        header.put(entry.name);
+        if (extra > 0) {
+            header.putShort((short) ZIP64_EXTRA);
+            header.putShort((short) extra);
+            if (bigSize) {
+                header.putLong(entry.size);
+            }
+            if (bigCompressed) {
+                header.putLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                header.putLong(entry.offset);
+            }
+        }
+        output.write(header.array());
+    }
+
+    /**
+     * 文件数超过65535或目录偏移、长度超过4GB时，先写ZIP64结束记录及其定位记录
+     */
+    private void writeEnd(int count, long centralOffset, long centralSize, CountingOutputStream output)
+            throws IOException {
+        boolean zip64 = count >= 0xFFFF || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = output.count;
+            ByteBuffer end64 = buffer(56 + 20);
+            end64.putInt(ZIP64_END_OF_CENTRAL);
+            end64.putLong(44);
+            end64.putShort((short) 45);
+            end64.putShort((short) 45);
+            end64.putInt(0);
+            end64.putInt(0);
+            end64.putLong(count);
+            end64.putLong(count);
+            end64.putLong(centralSize);
+            end64.putLong(centralOffset);
+            end64.putInt(ZIP64_END_LOCATOR);
+            end64.putInt(0);
+            end64.putLong(zip64EndOffset);
+            end64.putInt(1);
+            output.write(end64.array());
+        }
+        ByteBuffer end = buffer(22);
+        end.putInt(END_OF_CENTRAL);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? 0xFFFF : count));
+        end.putShort((short) (zip64 ? 0xFFFF : count));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : centralSize));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : centralOffset));
+        end.putShort((short) 0);
+        output.write(end.array());
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 判断文件是否已经压缩，TIFF根据第一个IFD的Compression标签判断
+     */
+    static boolean isCompressed(File file) {
+        String name = file.getName().toLowerCase();
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        if (COMPRESSED_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        if (extension.equals("tif") || extension.equals("tiff")) {
+            return tiffCompression(file) > 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return TIFF第一个IFD的Compression标签值，读取失败或没有该标签时返回1(不压缩)
+     */
+    private static int tiffCompression(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            byte[] header = new byte[16];
+            raf.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            if (header[0] == 'I' && header[1] == 'I') {
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (header[0] != 'M' || header[1] != 'M') {
+                return 1;
+            }
+            boolean big = buffer.getShort(2) == 43;
+            long ifd = big ? buffer.getLong(8) : buffer.getInt(4) & 0xFFFFFFFFL;
+            int entrySize = big ? 20 : 12;
+            byte[] countBytes = new byte[big ? 8 : 2];
+            raf.seek(ifd);
+            raf.readFully(countBytes);
+            ByteBuffer countBuffer = ByteBuffer.wrap(countBytes).order(buffer.order());
+            long count = big ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+            byte[] entries = new byte[(int) Math.min(count, 4096) * entrySize];
+            raf.readFully(entries);
+            ByteBuffer entryBuffer = ByteBuffer.wrap(entries).order(buffer.order());
+            for (int i = 0; i < entries.length / entrySize; i++) {
+                if ((entryBuffer.getShort(i * entrySize) & 0xFFFF) == 259) {
+                    return entryBuffer.getShort(i * entrySize + (big ? 12 : 8)) & 0xFFFF;
+                }
+            }
+            return 1;
+        } catch (IOException e) {
+            return 1;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[STORED_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[STORED_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("打包被中断.");
+        }
+    }
+
+    /**
+     * 与ZipUtils.compress相同的遍历规则收集文件和包内名称
+     */
+    private static void collect(File sourceFile, String name, boolean keepDirStructure,
+                                List<File> files, List<String> names) {
+        if (sourceFile.isFile()) {
+            files.add(sourceFile);
+            names.add(name);
+            return;
+        }
+        File[] listFiles = sourceFile.listFiles();
+        if (listFiles == null || listFiles.length == 0) {
+            if (keepDirStructure) {
+                files.add(sourceFile);
+                names.add(name + "/");
+            }
+            return;
+        }
+        Arrays.sort(listFiles);
+        for (File file : listFiles) {
+            collect(file, keepDirStructure ? name + "/" + file.getName() : file.getName(),
+                    keepDirStructure, files, names);
+        }
+    }
+
+    private static long dosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final long dosTime;
+        int flags = FLAG_UTF8;
+        int method;
+        boolean zip64;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        CRC32 crc32;
+
+        Entry(String name, long modified) {
+            this.name = name.getBytes(UTF8);
+            this.dosTime = dosTime(modified);
+        }
+
+        boolean isDirectory() {
+            return name.length > 0 && name[name.length - 1] == '/';
+        }
+
+        @Override
+        public String toString() {
+            return new String(name, UTF8);
+        }
+    }
+
+    private static class Chunk {
+        final Entry entry;
+        final byte[] raw;
+        final int length;
+        final boolean first;
+        final boolean last;
+        Future<byte[]> compressed;
+
+        Chunk(Entry entry, byte[] raw, int length, boolean first, boolean last) {
+            this.entry = entry;
+            this.raw = raw;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * 记录已写出的字节数，即下一个记录在ZIP中的偏移
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
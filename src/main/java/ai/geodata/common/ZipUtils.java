@@ -56,6 +56,57 @@ public class ZipUtils {
         }
     }
 
+    /**
+     * 多线程压缩整个目录，已压缩的文件(jpg/png、压缩的TIFF等)直接存储
+     * @param srcDir 压缩文件夹路径
+     * @param out    压缩文件输出流，可以是HDFS输出流
+     * @param KeepDirStructure  是否保留原来的目录结构
+     * @param threads 压缩线程数
+     * @throws RuntimeException 压缩失败会抛出运行时异常
+     */
+    public static void toZip(String srcDir, OutputStream out, boolean KeepDirStructure, int threads)
+            throws RuntimeException{
+        try {
+            new ZipPackager(threads).pack(srcDir, out, KeepDirStructure);
+        } catch (Exception e) {
+            throw new RuntimeException("zip error from ZipUtils",e);
+        }finally{
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 多线程解压ZIP(支持ZIP64)，只读取中央目录和选中的文件
+     * @param zipFile ZIP文件路径
+     * @param destDir 解压目录，文件名含绝对路径或..的项不会被解压
+     * @param glob    通配符，如tiles/**或*.tif；null时解压全部
+     * @param threads 同时解压的文件数
+     * @return 每个文件的结果
+     * @throws RuntimeException ZIP无法读取时抛出运行时异常
+     */
+    public static TransferReport unzip(String zipFile, String destDir, String glob, int threads)
+            throws RuntimeException{
+        ZipExtractor extractor = null;
+        try {
+            extractor = new ZipExtractor(ZipExtractor.fileSource(new File(zipFile)));
+            return extractor.extract(ZipExtractor.directoryTarget(new File(destDir)), glob, threads);
+        } catch (IOException e) {
+            throw new RuntimeException("unzip error from ZipUtils",e);
+        }finally{
+            if(extractor != null){
+                try {
+                    extractor.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /**
      * 压缩成ZIP 方法2
      * @param srcFiles 需要压缩的文件列表
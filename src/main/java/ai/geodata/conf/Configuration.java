@@ -3,27 +3,65 @@ package ai.geodata.conf;
 import org.apache.log4j.Logger;
 import org.yaml.snakeyaml.Yaml;
 
-import java.io.FileInputStream;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Map;
 
 public class Configuration {
     protected static Logger log = Logger.getLogger(Configuration.class);
-    private static Map<String, String> configs;
+    //application.yaml只在第一次使用时解析一次，之后所有实例共享
+    private static volatile Map<String, String> configs;
 
     public Configuration() {
+        if (configs == null) {
+            synchronized (Configuration.class) {
+                if (configs == null) {
+                    configs = load();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取application.yaml，嵌套的配置项既可以用完整路径(如hdfs.defaultFS)，也可以只用最后一级名称(如defaultFS)获取
+     */
+    private static Map<String, String> load() {
+        Map<String, String> result = new HashMap<String, String>();
+        InputStream in = Configuration.class.getClassLoader().getResourceAsStream("application.yaml");
+        if (in == null) {
+            return result;
+        }
         try {
-            Yaml yaml = new Yaml();
-            URL url = Configuration.class.getClassLoader().getResource("application.yaml");
-            if (url != null) {
-                //获取test.yaml文件中的配置数据，然后转换为obj，
-                Object obj = yaml.load(new FileInputStream(url.getFile()));
-                log.info("加载配置文件: " + obj);
-                //也可以将值转换为Map
-                configs = yaml.load(new FileInputStream(url.getFile()));
+            Object obj = new Yaml().load(in);
+            log.info("加载配置文件: " + obj);
+            if (obj instanceof Map) {
+                flatten("", (Map<?, ?>) obj, result);
             }
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static void flatten(String prefix, Map<?, ?> map, Map<String, String> result) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            String name = String.valueOf(entry.getKey());
+            if (entry.getValue() instanceof Map) {
+                flatten(prefix + name + ".", (Map<?, ?>) entry.getValue(), result);
+            } else {
+                String value = entry.getValue() == null ? null : String.valueOf(entry.getValue());
+                result.put(prefix + name, value);
+                if (!result.containsKey(name)) {
+                    result.put(name, value);
+                }
+            }
         }
     }
 
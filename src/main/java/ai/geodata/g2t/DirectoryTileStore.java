@@ -0,0 +1,109 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 按TMS目录结构 z/x/y.ext 每张瓦片一个文件
+ */
+
+package ai.geodata.g2t;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class DirectoryTileStore implements TileStore {
+    protected Logger log = Logger.getLogger(DirectoryTileStore.class);
+
+    private final File outputDir;
+    private final String extension;
+
+    /**
+     * @param outputDir 输出目录
+     * @param extension 瓦片后缀，如.png
+     */
+    public DirectoryTileStore(File outputDir, String extension) {
+        this.outputDir = outputDir;
+        this.extension = extension;
+    }
+
+    public File file(int tx, int ty, int tz) {
+        return new File(outputDir, tz + File.separator + tx + File.separator + ty + extension);
+    }
+
+    @Override
+    public boolean put(int tx, int ty, int tz, byte[] data) {
+        File file = file(tx, ty, tz);
+        File dir = file.getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            log.error("无法创建目录: " + dir);
+            return false;
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(data);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] get(int tx, int ty, int tz) {
+        File file = file(tx, ty, tz);
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int n = 0;
+            while (n < data.length) {
+                int read = in.read(data, n, data.length - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+            return data;
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void remove(int tx, int ty, int tz) {
+        file(tx, ty, tz).delete();
+    }
+
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage());
+            }
+        }
+    }
+}
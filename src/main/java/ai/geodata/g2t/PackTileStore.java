@@ -0,0 +1,321 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 单文件瓦片包：文件头之后是按级别排列的定长索引，瓦片数据追加写在索引之后
+ */
+
+package ai.geodata.g2t;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件结构(大端)：
+ * <pre>
+ * int magic, int version, int tminz, int tmaxz
+ * 每个级别 int tminx, tminy, tmaxx, tmaxy
+ * 每个级别 (tmaxx-tminx+1)*(tmaxy-tminy+1) 个索引项，按行(ty)再按列(tx)排列，
+ *     每项 long offset, int length，length为0表示瓦片不存在
+ * 瓦片数据
+ * </pre>
+ * 写入先缓存在内存中，攒够一批后一次写出数据再更新索引；
+ * 内容相同的小瓦片(如空白、纯色瓦片)只存一份，多个索引项指向同一位置。
+ */
+public class PackTileStore implements TileStore {
+    protected Logger log = Logger.getLogger(PackTileStore.class);
+
+    private static final int MAGIC = 0x47325450;  //"G2TP"
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 12;
+    //内存中缓存的瓦片数据达到该大小时写出
+    private static final int BATCH_BYTES = 8 * 1024 * 1024;
+    //不超过该大小的瓦片参与去重
+    private static final int DEDUP_MAX_SIZE = 4096;
+    private static final int DEDUP_MAX_ENTRIES = 4096;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int tminz;
+    private final int tmaxz;
+    private final int[][] ranges;
+    private final long[] indexOffsets;
+    private long dataEnd;
+    private final boolean created;
+
+    //尚未写出的瓦片数据及其索引项，key为索引项在文件中的位置
+    private byte[] buffer = new byte[64 * 1024];
+    private int bufferLength = 0;
+    private final Map<Long, long[]> pending = new HashMap<Long, long[]>();
+    private final Map<Content, long[]> dedup = new HashMap<Content, long[]>();
+    private long dedupHits = 0;
+
+    /**
+     * 打开瓦片包，文件不存在或与范围不一致时新建
+     * @param path 瓦片包路径
+     * @param tminmax GDAL2Tiles.getZoomLevels()返回的各级别瓦片范围
+     * @param tminz 最小级别
+     * @param tmaxz 最大级别
+     */
+    public PackTileStore(File path, List<int[]> tminmax, int tminz, int tmaxz) throws IOException {
+        this.tminz = tminz;
+        this.tmaxz = tmaxz;
+        this.ranges = new int[tmaxz + 1][];
+        this.indexOffsets = new long[tmaxz + 1];
+        long offset = 16 + 16L * (tmaxz - tminz + 1);
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            ranges[tz] = tminmax.get(tz).clone();
+            indexOffsets[tz] = offset;
+            offset += (long) width(tz) * height(tz) * ENTRY_SIZE;
+        }
+        long dataStart = offset;
+
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        if (file.length() >= dataStart && headerMatches()) {
+            this.dataEnd = file.length();
+            this.created = false;
+        } else {
+            if (file.length() > 0) {
+                log.warn("瓦片包与本次切片的范围不一致，将重新创建: " + path);
+            }
+            file.setLength(0);
+            writeHeader();
+            //索引区预留为0，即全部瓦片不存在
+            file.setLength(dataStart);
+            this.dataEnd = dataStart;
+            this.created = true;
+        }
+    }
+
+    /**
+     * @return 是否为新建的空瓦片包，此时原有清单不再有效
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    @Override
+    public synchronized boolean put(int tx, int ty, int tz, byte[] data) {
+        long position = entryPosition(tx, ty, tz);
+        if (position < 0) {
+            log.error("瓦片超出瓦片包范围: " + tz + "/" + tx + "/" + ty);
+            return false;
+        }
+        long[] entry = null;
+        Content content = null;
+        if (data.length <= DEDUP_MAX_SIZE) {
+            content = new Content(data);
+            entry = dedup.get(content);
+        }
+        if (entry != null) {
+            dedupHits++;
+        } else {
+            entry = new long[]{dataEnd + bufferLength, data.length};
+            append(data);
+            if (content != null && dedup.size() < DEDUP_MAX_ENTRIES) {
+                dedup.put(content, entry);
+            }
+        }
+        pending.put(position, entry);
+        return bufferLength < BATCH_BYTES || writePending();
+    }
+
+    @Override
+    public synchronized byte[] get(int tx, int ty, int tz) {
+        long position = entryPosition(tx, ty, tz);
+        if (position < 0) {
+            return null;
+        }
+        try {
+            long[] entry = pending.get(position);
+            if (entry == null) {
+                ByteBuffer index = ByteBuffer.allocate(ENTRY_SIZE);
+                readFully(index, position);
+                index.flip();
+                entry = new long[]{index.getLong(), index.getInt()};
+            }
+            if (entry[1] == 0) {
+                return null;
+            }
+            byte[] data = new byte[(int) entry[1]];
+            if (entry[0] >= dataEnd) {
+                System.arraycopy(buffer, (int) (entry[0] - dataEnd), data, 0, data.length);
+            } else {
+                readFully(ByteBuffer.wrap(data), entry[0]);
+            }
+            return data;
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void remove(int tx, int ty, int tz) {
+        long position = entryPosition(tx, ty, tz);
+        if (position >= 0) {
+            pending.put(position, new long[]{0, 0});
+        }
+    }
+
+    @Override
+    public synchronized boolean flush() {
+        if (!writePending()) {
+            return false;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (dedupHits > 0) {
+            log.info("瓦片包去重" + dedupHits + "张");
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * 先写数据再写索引，中途崩溃时索引不会指向不完整的数据
+     */
+    private boolean writePending() {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        try {
+            writeFully(ByteBuffer.wrap(buffer, 0, bufferLength), dataEnd);
+            dataEnd += bufferLength;
+            bufferLength = 0;
+
+            Long[] positions = pending.keySet().toArray(new Long[0]);
+            Arrays.sort(positions);
+            ByteBuffer index = ByteBuffer.allocate(ENTRY_SIZE);
+            for (Long position : positions) {
+                long[] entry = pending.get(position);
+                index.clear();
+                index.putLong(entry[0]).putInt((int) entry[1]).flip();
+                writeFully(index, position);
+            }
+            pending.clear();
+        } catch (IOException e) {
+            log.error("写入瓦片包失败: " + e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    private void append(byte[] data) {
+        if (bufferLength + data.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + data.length));
+        }
+        System.arraycopy(data, 0, buffer, bufferLength, data.length);
+        bufferLength += data.length;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16 + 16 * (tmaxz - tminz + 1));
+        header.putInt(MAGIC).putInt(VERSION).putInt(tminz).putInt(tmaxz);
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            for (int v : ranges[tz]) {
+                header.putInt(v);
+            }
+        }
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    private boolean headerMatches() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16 + 16 * (tmaxz - tminz + 1));
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != tminz || header.getInt() != tmaxz) {
+            return false;
+        }
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            for (int v : ranges[tz]) {
+                if (header.getInt() != v) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of tile pack");
+            }
+            position += n;
+        }
+    }
+
+    private long entryPosition(int tx, int ty, int tz) {
+        if (tz < tminz || tz > tmaxz) {
+            return -1;
+        }
+        int[] range = ranges[tz];
+        if (tx < range[0] || tx > range[2] || ty < range[1] || ty > range[3]) {
+            return -1;
+        }
+        return indexOffsets[tz] + ((long) (ty - range[1]) * width(tz) + (tx - range[0])) * ENTRY_SIZE;
+    }
+
+    private int width(int tz) {
+        return ranges[tz][2] - ranges[tz][0] + 1;
+    }
+
+    private int height(int tz) {
+        return ranges[tz][3] - ranges[tz][1] + 1;
+    }
+
+    /**
+     * 按内容比较的瓦片数据，用于去重
+     */
+    private static class Content {
+        private final byte[] data;
+        private final int hash;
+
+        Content(byte[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Content && Arrays.equals(data, ((Content) obj).data);
+        }
+    }
+}
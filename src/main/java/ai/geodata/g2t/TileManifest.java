@@ -0,0 +1,255 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 瓦片生成清单，每个缩放级别一个位图记录已完成的瓦片，用于断点续切和增量更新
+ */
+
+package ai.geodata.g2t;
+
+import ai.geodata.common.BoundingBox;
+import ai.geodata.util.TileProfile;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class TileManifest {
+    protected static Logger log = Logger.getLogger(TileManifest.class);
+
+    private static final int MAGIC = 0x4732544D;  //"G2TM"
+    private static final int VERSION = 1;
+
+    private final int tileSize;
+    private final int epsg;
+    private final String extension;
+    private final int tminz;
+    private final int tmaxz;
+    //每个级别的瓦片范围 {tminx, tminy, tmaxx, tmaxy}，下标为级别
+    private final int[][] ranges;
+    private final BitSet[] done;
+
+    /**
+     * 新建空清单
+     * @param tminmax GDAL2Tiles.getZoomLevels()返回的各级别瓦片范围
+     * @param tminz 最小级别
+     * @param tmaxz 最大级别
+     * @param tileSize 瓦片大小
+     * @param epsg 瓦片坐标系
+     * @param extension 瓦片后缀，如.png
+     */
+    public TileManifest(List<int[]> tminmax, int tminz, int tmaxz, int tileSize, int epsg, String extension) {
+        this.tileSize = tileSize;
+        this.epsg = epsg;
+        this.extension = extension;
+        this.tminz = tminz;
+        this.tmaxz = tmaxz;
+        this.ranges = new int[tmaxz + 1][];
+        this.done = new BitSet[tmaxz + 1];
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            int[] range = tminmax.get(tz);
+            ranges[tz] = range.clone();
+            done[tz] = new BitSet(width(tz) * height(tz));
+        }
+    }
+
+    /**
+     * 读取清单，文件不存在、损坏或与本次切片的参数不一致时返回null
+     */
+    public static TileManifest load(File file, List<int[]> tminmax, int tminz, int tmaxz, int tileSize,
+                                    int epsg, String extension) {
+        if (!file.isFile()) {
+            return null;
+        }
+        TileManifest manifest = new TileManifest(tminmax, tminz, tmaxz, tileSize, epsg, extension);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("瓦片清单格式不正确: " + file);
+                return null;
+            }
+            if (in.readInt() != tileSize || in.readInt() != epsg || !in.readUTF().equals(extension)
+                    || in.readInt() != tminz || in.readInt() != tmaxz) {
+                log.warn("瓦片清单与本次切片参数不一致，将重新切片: " + file);
+                return null;
+            }
+            for (int tz = tminz; tz <= tmaxz; tz++) {
+                int[] range = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    range[i] = in.readInt();
+                }
+                if (!Arrays.equals(range, manifest.ranges[tz])) {
+                    log.warn("瓦片清单的范围与影像不一致，将重新切片: " + file);
+                    return null;
+                }
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                manifest.done[tz] = BitSet.valueOf(words);
+            }
+        } catch (IOException e) {
+            log.warn("读取瓦片清单失败: " + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        return manifest;
+    }
+
+    /**
+     * 复制当前状态，用于先持久化瓦片再保存清单
+     */
+    public synchronized TileManifest copy() {
+        TileManifest copy = new TileManifest(this);
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            copy.done[tz] = (BitSet) done[tz].clone();
+        }
+        return copy;
+    }
+
+    private TileManifest(TileManifest other) {
+        this.tileSize = other.tileSize;
+        this.epsg = other.epsg;
+        this.extension = other.extension;
+        this.tminz = other.tminz;
+        this.tmaxz = other.tmaxz;
+        this.ranges = other.ranges;
+        this.done = new BitSet[tmaxz + 1];
+    }
+
+    /**
+     * 写入临时文件后原子替换，中途崩溃不会留下不完整的清单
+     */
+    public synchronized boolean save(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tileSize);
+            out.writeInt(epsg);
+            out.writeUTF(extension);
+            out.writeInt(tminz);
+            out.writeInt(tmaxz);
+            for (int tz = tminz; tz <= tmaxz; tz++) {
+                for (int v : ranges[tz]) {
+                    out.writeInt(v);
+                }
+                long[] words = done[tz].toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+            out.close();
+            out = null;
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("保存瓦片清单失败: " + e.getMessage(), e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+        return true;
+    }
+
+    /**
+     * 瓦片及其全部子瓦片是否已完成。上一级瓦片在子瓦片全部完成后才会标记。
+     */
+    public synchronized boolean isDone(int tx, int ty, int tz) {
+        int index = index(tx, ty, tz);
+        return index >= 0 && done[tz].get(index);
+    }
+
+    public synchronized void markDone(int tx, int ty, int tz) {
+        int index = index(tx, ty, tz);
+        if (index >= 0) {
+            done[tz].set(index);
+        }
+    }
+
+    /**
+     * 清除与变化范围相交的瓦片，各级别分别计算，因此其所有上级瓦片一并清除
+     * @param changed 变化的范围，坐标为瓦片坐标系下的坐标
+     * @param profile 瓦片坐标系
+     * @return 清除的瓦片数
+     */
+    public synchronized long invalidate(BoundingBox changed, TileProfile profile) {
+        long cleared = 0;
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            int[] min = profile.coordsToTile(changed.getMinimumX(), changed.getMinimumY(), tz);
+            int[] max = profile.coordsToTile(changed.getMaximumX(), changed.getMaximumY(), tz);
+            int[] range = ranges[tz];
+            for (int ty = Math.max(min[1], range[1]); ty <= Math.min(max[1], range[3]); ty++) {
+                for (int tx = Math.max(min[0], range[0]); tx <= Math.min(max[0], range[2]); tx++) {
+                    int index = index(tx, ty, tz);
+                    if (done[tz].get(index)) {
+                        done[tz].clear(index);
+                        cleared++;
+                    }
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * @return 已完成的瓦片数
+     */
+    public synchronized long getDoneCount() {
+        long count = 0;
+        for (int tz = tminz; tz <= tmaxz; tz++) {
+            count += done[tz].cardinality();
+        }
+        return count;
+    }
+
+    private int index(int tx, int ty, int tz) {
+        if (tz < tminz || tz > tmaxz) {
+            return -1;
+        }
+        int[] range = ranges[tz];
+        if (tx < range[0] || tx > range[2] || ty < range[1] || ty > range[3]) {
+            return -1;
+        }
+        return (ty - range[1]) * width(tz) + (tx - range[0]);
+    }
+
+    private int width(int tz) {
+        return ranges[tz][2] - ranges[tz][0] + 1;
+    }
+
+    private int height(int tz) {
+        return ranges[tz][3] - ranges[tz][1] + 1;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage());
+            }
+        }
+    }
+}
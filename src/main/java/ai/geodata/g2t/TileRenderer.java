@@ -0,0 +1,231 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 从投影转换后的影像中切取单张瓦片，以及由4张子瓦片合成上一级瓦片
+ */
+
+package ai.geodata.g2t;
+
+import ai.geodata.OverviewReader;
+import ai.geodata.common.BoundingBox;
+import ai.geodata.common.Dimensions;
+import ai.geodata.util.TileProfile;
+import org.apache.log4j.Logger;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+public class TileRenderer {
+    protected Logger log = Logger.getLogger(TileRenderer.class);
+
+    //读取影像失败时renderTile的返回值，与空瓦片(null)区分，按引用比较
+    public static final int[] READ_FAILED = new int[0];
+
+    private final Dataset dataset;
+    private final TileProfile profile;
+    private final int tileSize;
+    private final double[] geoTransform;
+    private final BoundingBox bounds;
+    private final int[] bandList;
+    //降采样读取时的重采样方法
+    private final String resampling;
+
+    //读取窗口的缓存，按波段顺序存放
+    private final byte[] data;
+    private final byte[] alpha;
+
+    /**
+     * @param dataset 已转换到瓦片坐标系的影像(一般为warped VRT)，只能在一个线程中使用
+     * @param profile 瓦片坐标系
+     * @param tileSize 瓦片大小
+     * @param resampling 读取窗口与瓦片大小不同时的重采样方法，ContentValue.resamplingList中的一项
+     */
+    public TileRenderer(Dataset dataset, TileProfile profile, int tileSize, String resampling) {
+        if (OverviewReader.toGDALResampling(resampling) == null) {
+            throw new IllegalArgumentException("Unsupported resampling method: " + resampling);
+        }
+        this.dataset = dataset;
+        this.resampling = resampling;
+        this.profile = profile;
+        this.tileSize = tileSize;
+        this.geoTransform = dataset.GetGeoTransform();
+        this.bounds = new GeoTransformation(geoTransform).getBounds(
+                new Dimensions<Integer>(dataset.getRasterXSize(), dataset.getRasterYSize()));
+        this.bandList = dataset.getRasterCount() >= 3 ? new int[]{1, 2, 3} : new int[]{1};
+        this.data = new byte[tileSize * tileSize * bandList.length];
+        this.alpha = new byte[tileSize * tileSize];
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * 切取一张瓦片
+     * @param tx 瓦片列号
+     * @param ty 瓦片行号(TMS，自南向北)
+     * @param tz 缩放级别
+     * @return 按行存储的ARGB像元，透明像元为0；瓦片与影像不相交或全部为nodata时返回null，读取失败时返回READ_FAILED
+     */
+    public int[] renderTile(int tx, int ty, int tz) {
+        double[] b = profile.tileBounds(tx, ty, tz);
+        if (!bounds.intersects(new BoundingBox(b[0], b[1], b[2], b[3]))) {
+            return null;
+        }
+        int[] query = geoQuery(b[0], b[3], b[2], b[1]);
+        if (query == null) {
+            return null;
+        }
+        int rx = query[0], ry = query[1], rxsize = query[2], rysize = query[3];
+        int wx = query[4], wy = query[5], wxsize = query[6], wysize = query[7];
+
+        //先读掩膜，影像斜边以外全部为nodata的瓦片不再读取数据
+        Band mask = dataset.GetRasterBand(1).GetMaskBand();
+        boolean allValid = (dataset.GetRasterBand(1).GetMaskFlags() & gdalconstConstants.GMF_ALL_VALID) != 0;
+        OverviewReader.beginResampling(resampling);
+        try {
+            if (!allValid) {
+                if (mask.ReadRaster(rx, ry, rxsize, rysize, wxsize, wysize, gdalconstConstants.GDT_Byte,
+                        alpha) != gdalconstConstants.CE_None) {
+                    log.error("读取瓦片掩膜失败: " + gdal.GetLastErrorMsg());
+                    return READ_FAILED;
+                }
+                if (isTransparent(alpha, wxsize * wysize)) {
+                    return null;
+                }
+            }
+            if (dataset.ReadRaster(rx, ry, rxsize, rysize, wxsize, wysize, gdalconstConstants.GDT_Byte,
+                    data, bandList) != gdalconstConstants.CE_None) {
+                log.error("读取瓦片数据失败: " + gdal.GetLastErrorMsg());
+                return READ_FAILED;
+            }
+        } finally {
+            OverviewReader.endResampling();
+        }
+
+        int[] pixels = new int[tileSize * tileSize];
+        int bandSize = wxsize * wysize;
+        for (int row = 0; row < wysize; row++) {
+            for (int col = 0; col < wxsize; col++) {
+                int i = row * wxsize + col;
+                int a = allValid ? 0xFF : alpha[i] & 0xFF;
+                if (a == 0) {
+                    continue;
+                }
+                int r = data[i] & 0xFF;
+                int g = bandList.length == 3 ? data[bandSize + i] & 0xFF : r;
+                int bl = bandList.length == 3 ? data[2 * bandSize + i] & 0xFF : r;
+                pixels[(wy + row) * tileSize + wx + col] = (a << 24) | (r << 16) | (g << 8) | bl;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return 瓦片的全部像元是否为同一颜色，此类瓦片只需编码一次
+     */
+    public static boolean isUniform(int[] pixels) {
+        int first = pixels[0];
+        for (int i = 1; i < pixels.length; i++) {
+            if (pixels[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTransparent(byte[] alpha, int length) {
+        for (int i = 0; i < length; i++) {
+            if (alpha[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算地理范围对应的影像读取窗口和瓦片写入窗口(参照gdal2tiles.py的geo_query)
+     * @return {rx, ry, rxsize, rysize, wx, wy, wxsize, wysize}，不相交时返回null
+     */
+    private int[] geoQuery(double ulx, double uly, double lrx, double lry) {
+        int rx = (int) ((ulx - geoTransform[0]) / geoTransform[1] + 0.001);
+        int ry = (int) ((uly - geoTransform[3]) / geoTransform[5] + 0.001);
+        int rxsize = (int) ((lrx - ulx) / geoTransform[1] + 0.5);
+        int rysize = (int) ((lry - uly) / geoTransform[5] + 0.5);
+        int wxsize = tileSize, wysize = tileSize;
+
+        int wx = 0;
+        if (rx < 0) {
+            int rxshift = Math.abs(rx);
+            wx = (int) (wxsize * ((double) rxshift / rxsize));
+            wxsize = wxsize - wx;
+            rxsize = rxsize - (int) (rxsize * ((double) rxshift / rxsize));
+            rx = 0;
+        }
+        if (rx + rxsize > dataset.getRasterXSize()) {
+            wxsize = (int) (wxsize * ((double) (dataset.getRasterXSize() - rx) / rxsize));
+            rxsize = dataset.getRasterXSize() - rx;
+        }
+
+        int wy = 0;
+        if (ry < 0) {
+            int ryshift = Math.abs(ry);
+            wy = (int) (wysize * ((double) ryshift / rysize));
+            wysize = wysize - wy;
+            rysize = rysize - (int) (rysize * ((double) ryshift / rysize));
+            ry = 0;
+        }
+        if (ry + rysize > dataset.getRasterYSize()) {
+            wysize = (int) (wysize * ((double) (dataset.getRasterYSize() - ry) / rysize));
+            rysize = dataset.getRasterYSize() - ry;
+        }
+
+        if (rxsize <= 0 || rysize <= 0 || wxsize <= 0 || wysize <= 0) {
+            return null;
+        }
+        return new int[]{rx, ry, rxsize, rysize, wx, wy, wxsize, wysize};
+    }
+
+    /**
+     * 由4张子瓦片按2x2平均合成上一级瓦片，透明像元不参与平均
+     * @param children 子瓦片，依次为左下(2x,2y)、右下(2x+1,2y)、左上(2x,2y+1)、右上(2x+1,2y+1)，缺失为null
+     * @param tileSize 瓦片大小
+     * @return 合成的瓦片，子瓦片全部缺失时返回null
+     */
+    public static int[] downsample(int[][] children, int tileSize) {
+        if (children[0] == null && children[1] == null && children[2] == null && children[3] == null) {
+            return null;
+        }
+        int half = tileSize / 2;
+        int[] pixels = new int[tileSize * tileSize];
+        for (int q = 0; q < 4; q++) {
+            int[] child = children[q];
+            if (child == null) {
+                continue;
+            }
+            int offsetX = (q % 2) * half;
+            int offsetY = q < 2 ? half : 0;
+            for (int y = 0; y < half; y++) {
+                for (int x = 0; x < half; x++) {
+                    int i = 2 * y * tileSize + 2 * x;
+                    pixels[(offsetY + y) * tileSize + offsetX + x] =
+                            average(child[i], child[i + 1], child[i + tileSize], child[i + tileSize + 1]);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static int average(int p0, int p1, int p2, int p3) {
+        int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+        int sumA = a0 + a1 + a2 + a3;
+        if (sumA == 0) {
+            return 0;
+        }
+        int r = (a0 * (p0 >> 16 & 0xFF) + a1 * (p1 >> 16 & 0xFF) + a2 * (p2 >> 16 & 0xFF) + a3 * (p3 >> 16 & 0xFF)) / sumA;
+        int g = (a0 * (p0 >> 8 & 0xFF) + a1 * (p1 >> 8 & 0xFF) + a2 * (p2 >> 8 & 0xFF) + a3 * (p3 >> 8 & 0xFF)) / sumA;
+        int b = (a0 * (p0 & 0xFF) + a1 * (p1 & 0xFF) + a2 * (p2 & 0xFF) + a3 * (p3 & 0xFF)) / sumA;
+        return ((sumA / 4) << 24) | (r << 16) | (g << 8) | b;
+    }
+}
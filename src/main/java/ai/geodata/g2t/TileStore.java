@@ -0,0 +1,36 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 瓦片的存储方式，由GDAL2Tiles的各工作线程并发调用
+ */
+
+package ai.geodata.g2t;
+
+public interface TileStore {
+    /**
+     * 写入已编码的瓦片，已存在时覆盖
+     * @return 是否成功
+     */
+    boolean put(int tx, int ty, int tz, byte[] data);
+
+    /**
+     * @return 已编码的瓦片，不存在时返回null
+     */
+    byte[] get(int tx, int ty, int tz);
+
+    /**
+     * 删除瓦片，不存在时不做处理
+     */
+    void remove(int tx, int ty, int tz);
+
+    /**
+     * 将已写入的瓦片持久化，此后才能在清单中记为完成
+     * @return 是否成功
+     */
+    boolean flush();
+
+    /**
+     * 持久化并释放资源
+     */
+    void close();
+}
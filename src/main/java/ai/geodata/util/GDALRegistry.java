@@ -0,0 +1,50 @@
+package ai.geodata.util;
+
+import ai.geodata.conf.Configuration;
+import org.apache.log4j.Logger;
+import org.gdal.gdal.gdal;
+import org.gdal.ogr.ogr;
+
+/**
+ * 进程内只注册一次GDAL/OGR驱动，避免每次构造对象时重复注册；同时按application.yaml中的gdal.cacheMax设置块缓存上限
+ */
+public class GDALRegistry {
+    protected static Logger log = Logger.getLogger(GDALRegistry.class);
+
+    private static volatile boolean registered = false;
+
+    public static void register() {
+        if (registered) {
+            return;
+        }
+        synchronized (GDALRegistry.class) {
+            if (!registered) {
+                gdal.AllRegister();
+                ogr.RegisterAll();
+                setCacheMax(new Configuration().get("gdal.cacheMax"));
+                registered = true;
+            }
+        }
+    }
+
+    /**
+     * GDAL块缓存为进程共享，只在启动时设置一次，未配置时使用GDAL默认值
+     * @param megabytes 缓存上限(MB)
+     */
+    private static void setCacheMax(String megabytes) {
+        if (megabytes == null) {
+            return;
+        }
+        try {
+            long bytes = Long.parseLong(megabytes.trim()) * 1024 * 1024;
+            if (bytes <= 0) {
+                log.warn("gdal.cacheMax必须为正数: " + megabytes);
+                return;
+            }
+            gdal.SetCacheMax((int) Math.min(Integer.MAX_VALUE, bytes));
+            log.info("GDAL块缓存上限: " + gdal.GetCacheMax() + "字节");
+        } catch (NumberFormatException e) {
+            log.warn("gdal.cacheMax格式错误: " + megabytes);
+        }
+    }
+}
@@ -6,7 +6,7 @@ import ai.geodata.common.ContentValue;
  * Created by JerFer
  * Date: 2017/12/13.
  */
-public class GlobalGeodetic {
+public class GlobalGeodetic implements TileProfile {
     private int tileSize;
     private double resFact;
 
@@ -21,6 +21,21 @@ public class GlobalGeodetic {
         }
     }
 
+    @Override
+    public int getEPSG() {
+        return 4326;
+    }
+
+    @Override
+    public int[] coordsToTile(double x, double y, int zoom) {
+        return this.lonlatToTile(x, y, zoom);
+    }
+
+    @Override
+    public int[] maxTile(int zoom) {
+        return new int[]{(int) Math.pow(2, zoom + 1) - 1, (int) Math.pow(2, zoom) - 1};
+    }
+
     public double[] lonlatToPixels(double lon, double lat, int zoom) {
         double res = this.resFact / Math.pow(2, zoom);
         return new double[]{((180.0 + lon) / res), ((90.0 + lat) / res)};
@@ -37,10 +52,12 @@ public class GlobalGeodetic {
         return this.pixelsToTile(pxpy[0], pxpy[1]);
     }
 
+    @Override
     public double resolution(int zoom) {
         return this.resFact / Math.pow(2, zoom);
     }
 
+    @Override
     public int zoomForPixelSize(double pixelSize) {
         for (int i = 0; i < ContentValue.MAXZOOMLEVEL; i++) {
             if (pixelSize > resolution(i)) {
@@ -51,6 +68,7 @@ public class GlobalGeodetic {
         return 0;
     }
 
+    @Override
     public double[] tileBounds(int tx, int ty, int zoom) {
         double res = this.resFact / Math.pow(2, zoom);
         return new double[]{tx * this.tileSize * res - 180,
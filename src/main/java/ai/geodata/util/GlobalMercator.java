@@ -0,0 +1,127 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 球面墨卡托(EPSG:3857)瓦片坐标系，与Google Maps、OSM等网络地图一致，参照gdal2tiles.py的GlobalMercator
+ */
+
+package ai.geodata.util;
+
+import ai.geodata.common.ContentValue;
+
+public class GlobalMercator implements TileProfile {
+    private static final double EARTH_RADIUS = 6378137.0;
+
+    private int tileSize;
+    //级别0时每个像元对应的米数
+    private double initialResolution;
+    //赤道周长的一半，即3857坐标的最大值
+    private double originShift;
+
+    public GlobalMercator(int tileSize) {
+        this.tileSize = tileSize;
+        this.initialResolution = 2 * Math.PI * EARTH_RADIUS / this.tileSize;
+        this.originShift = 2 * Math.PI * EARTH_RADIUS / 2.0;
+    }
+
+    @Override
+    public int getEPSG() {
+        return 3857;
+    }
+
+    @Override
+    public int[] coordsToTile(double x, double y, int zoom) {
+        return this.metersToTile(x, y, zoom);
+    }
+
+    @Override
+    public int[] maxTile(int zoom) {
+        int max = (int) Math.pow(2, zoom) - 1;
+        return new int[]{max, max};
+    }
+
+    /**
+     * 经纬度转为EPSG:3857坐标
+     */
+    public double[] lonlatToMeters(double lon, double lat) {
+        double mx = lon * this.originShift / 180.0;
+        double my = Math.log(Math.tan((90 + lat) * Math.PI / 360.0)) / (Math.PI / 180.0);
+        my = my * this.originShift / 180.0;
+        return new double[]{mx, my};
+    }
+
+    /**
+     * EPSG:3857坐标转为经纬度
+     */
+    public double[] metersToLonlat(double mx, double my) {
+        double lon = (mx / this.originShift) * 180.0;
+        double lat = (my / this.originShift) * 180.0;
+        lat = 180 / Math.PI * (2 * Math.atan(Math.exp(lat * Math.PI / 180.0)) - Math.PI / 2.0);
+        return new double[]{lon, lat};
+    }
+
+    public double[] pixelsToMeters(double px, double py, int zoom) {
+        double res = this.resolution(zoom);
+        return new double[]{px * res - this.originShift, py * res - this.originShift};
+    }
+
+    public double[] metersToPixels(double mx, double my, int zoom) {
+        double res = this.resolution(zoom);
+        return new double[]{(mx + this.originShift) / res, (my + this.originShift) / res};
+    }
+
+    public int[] pixelsToTile(double px, double py) {
+        int tx = (int) (Math.ceil(px / (double) (this.tileSize)) - 1);
+        int ty = (int) (Math.ceil(py / (double) (this.tileSize)) - 1);
+        return new int[]{tx, ty};
+    }
+
+    public int[] metersToTile(double mx, double my, int zoom) {
+        double[] pxpy = this.metersToPixels(mx, my, zoom);
+        return this.pixelsToTile(pxpy[0], pxpy[1]);
+    }
+
+    public int[] lonlatToTile(double lon, double lat, int zoom) {
+        double[] m = this.lonlatToMeters(lon, lat);
+        return this.metersToTile(m[0], m[1], zoom);
+    }
+
+    @Override
+    public double resolution(int zoom) {
+        return this.initialResolution / Math.pow(2, zoom);
+    }
+
+    @Override
+    public int zoomForPixelSize(double pixelSize) {
+        for (int i = 0; i < ContentValue.MAXZOOMLEVEL; i++) {
+            if (pixelSize > resolution(i)) {
+                if (i != 0) return i - 1;
+                else return 0;
+            }
+        }
+        return ContentValue.MAXZOOMLEVEL - 1;
+    }
+
+    @Override
+    public double[] tileBounds(int tx, int ty, int zoom) {
+        double[] min = this.pixelsToMeters(tx * this.tileSize, ty * this.tileSize, zoom);
+        double[] max = this.pixelsToMeters((tx + 1) * this.tileSize, (ty + 1) * this.tileSize, zoom);
+        return new double[]{min[0], min[1], max[0], max[1]};
+    }
+
+    /**
+     * 瓦片的经纬度范围 {minLat, minLon, maxLat, maxLon}
+     */
+    public double[] tileLatLonBounds(int tx, int ty, int zoom) {
+        double[] b = this.tileBounds(tx, ty, zoom);
+        double[] min = this.metersToLonlat(b[0], b[1]);
+        double[] max = this.metersToLonlat(b[2], b[3]);
+        return new double[]{min[1], min[0], max[1], max[0]};
+    }
+
+    /**
+     * TMS瓦片号转为Google(XYZ)瓦片号，行号自北向南
+     */
+    public int[] googleTile(int tx, int ty, int zoom) {
+        return new int[]{tx, (int) Math.pow(2, zoom) - 1 - ty};
+    }
+}
@@ -0,0 +1,873 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 HDFS上影像的本地稀疏缓存，只下载GDAL实际要读取的字节范围
+ */
+
+package ai.geodata.util;
+
+import ai.geodata.HDFSClient;
+import ai.geodata.OverviewReader;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * GDAL 2.2的Java绑定无法注册自定义的虚拟文件系统，因此在本地建立与HDFS文件等长的稀疏文件，
+ * 按页记录已下载的范围，GDAL打开的是这个本地文件。
+ * 打开时解析TIFF的全部IFD，下载文件头、IFD及其引用的标签数据(含TileOffsets/TileByteCounts等)；
+ * 之后按需下载某一金字塔层的数据块，或下载整个文件。同名的.ovr外部金字塔同样处理。
+ * 非TIFF格式无法确定GDAL要读取的范围，只能整个下载。
+ * 稀疏文件中未下载的部分读出为0，GDAL不会报错，因此只能读取已下载的影像层：
+ * fetchLevel按GDAL实际要读取的金字塔层下载，该层不在解析出的IFD中时整个下载。
+ * <p>
+ * open()与close()成对调用，使用中的缓存不会被清除；已下载的数据量随下载累加，超过上限时才扫描缓存目录，
+ * 按最近使用时间删除未在使用的缓存文件(包括之前进程留下的)，其他进程可能正在使用的缓存不删除。
+ */
+public class HDFSRasterCache implements Closeable {
+    protected static Logger log = Logger.getLogger(HDFSRasterCache.class);
+
+    //下载和记录的最小单位
+    private static final int PAGE_SIZE = 64 * 1024;
+    //相距不超过该页数的两段合并为一次读取
+    private static final int MERGE_GAP_PAGES = 4;
+    private static final int READ_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int FETCH_THREADS = 4;
+    private static final int MAX_IFDS = 1024;
+
+    private static final String PAGES_SUFFIX = ".pages";
+    private static final String OVERVIEW_SUFFIX = ".ovr";
+    private static final String TMP_SUFFIX = ".tmp";
+    //未在本进程中打开的缓存在该时间内修改过时，可能正被其他进程使用，不清除
+    private static final long RECENT_MILLIS = 10 * 60 * 1000L;
+
+    //按访问顺序排列，用于确定清除顺序
+    private static final LinkedHashMap<String, HDFSRasterCache> caches =
+            new LinkedHashMap<String, HDFSRasterCache>(16, 0.75f, true);
+    //正在创建的缓存，同一影像只由一个线程创建，创建时的下载不占用caches的锁
+    private static final ConcurrentHashMap<String, FutureTask<HDFSRasterCache>> loading =
+            new ConcurrentHashMap<String, FutureTask<HDFSRasterCache>>();
+    //以下由caches的锁保护
+    //缓存目录中已下载数据的估计值，首次清除时扫描得到，之后随下载累加，小于0表示尚未扫描
+    private static long totalBytes = -1;
+    //上次扫描后仍无法降到上限以下时的数据量，数据量未超过它且没有缓存结束使用时不再扫描
+    private static long unevictableBytes = -1;
+    private static boolean evicting = false;
+    private static volatile File cacheDir = new File(System.getProperty("java.io.tmpdir"), "rsdata-hdfs-cache");
+    private static volatile long maxCacheBytes = 64L * 1024 * 1024 * 1024;
+
+    private final String key;
+    //open()未close()的次数，大于0时不能清除
+    private int users = 0;
+
+    private final SparseFile main;
+    private final SparseFile overview;
+    //全部影像层，第一个为原始分辨率；解析失败时为null
+    private final List<Level> levels;
+
+    /**
+     * @param dir 本地缓存目录，默认为系统临时目录下的rsdata-hdfs-cache
+     */
+    public static void setCacheDir(String dir) {
+        cacheDir = new File(dir);
+    }
+
+    /**
+     * @param bytes 缓存目录中已下载数据的上限，默认64GB，超过时删除最久未使用的缓存
+     */
+    public static void setMaxCacheBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("maxCacheBytes must be positive");
+        }
+        maxCacheBytes = bytes;
+    }
+
+    /**
+     * @return 路径是否在HDFS等非本地文件系统上
+     */
+    public static boolean isRemote(String path) {
+        int index = path.indexOf("://");
+        return index > 0 && !path.substring(0, index).equalsIgnoreCase("file");
+    }
+
+    /**
+     * 整个下载(已缓存的部分不再下载)，用于需要读取全部数据的切片和格式转换
+     * @param path hdfs://路径
+     * @return 缓存，用完后须close()；失败时返回null
+     */
+    public static HDFSRasterCache localize(String path) {
+        HDFSRasterCache cache = open(path);
+        if (cache != null && !cache.fetchAll()) {
+            cache.close();
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * 打开HDFS上的影像，下载文件头和IFD，同一文件在进程内共享
+     * @param path hdfs://路径
+     * @return 缓存，用完后须close()；失败时返回null
+     */
+    public static HDFSRasterCache open(String path) {
+        HDFSRasterCache cache;
+        try {
+            final Path remote = new Path(path);
+            final FileSystem fs = HDFSClient.getInstance().getFileSystem(remote);
+            final FileStatus status = fs.getFileStatus(remote);
+            final String key = remote + "\n" + status.getLen() + "\n" + status.getModificationTime();
+            synchronized (caches) {
+                cache = caches.get(key);
+                if (cache != null) {
+                    cache.users++;
+                }
+            }
+            if (cache == null) {
+                cache = create(key, new Callable<HDFSRasterCache>() {
+                    @Override
+                    public HDFSRasterCache call() throws IOException {
+                        return new HDFSRasterCache(fs, remote, status, key);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            log.error("打开HDFS影像失败: " + path + ", " + e.getMessage(), e);
+            return null;
+        }
+        evict();
+        return cache;
+    }
+
+    /**
+     * 创建缓存并计入一个使用者；同一影像同时打开时只创建一次，其他线程等待创建结果
+     */
+    private static HDFSRasterCache create(String key, Callable<HDFSRasterCache> creator) throws IOException {
+        FutureTask<HDFSRasterCache> task = new FutureTask<HDFSRasterCache>(creator);
+        FutureTask<HDFSRasterCache> running = loading.putIfAbsent(key, task);
+        try {
+            if (running == null) {
+                running = task;
+                synchronized (caches) {
+                    //检查caches与放入loading之间，其他线程可能刚创建完成
+                    HDFSRasterCache cache = caches.get(key);
+                    if (cache != null) {
+                        cache.users++;
+                        return cache;
+                    }
+                }
+                task.run();
+            }
+            HDFSRasterCache created = running.get();
+            synchronized (caches) {
+                HDFSRasterCache cache = caches.get(key);
+                if (cache == null) {
+                    cache = created;
+                    caches.put(key, cache);
+                }
+                cache.users++;
+                return cache;
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("打开被中断.");
+        } finally {
+            //放入caches之后才移出loading，避免同一影像被创建两次
+            if (running == task) {
+                loading.remove(key, task);
+            }
+        }
+    }
+
+    /**
+     * 结束使用，之后缓存文件可能被清除
+     */
+    @Override
+    public void close() {
+        synchronized (caches) {
+            if (users > 0) {
+                users--;
+                if (users == 0) {
+                    unevictableBytes = -1;
+                }
+            }
+        }
+        evict();
+    }
+
+    private HDFSRasterCache(FileSystem fs, Path remote, FileStatus status, String key) throws IOException {
+        this.key = key;
+        File dir = cacheDir;
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        String name = UUID.nameUUIDFromBytes(key.getBytes(Charset.forName("UTF-8"))) + "_" + remote.getName();
+        this.main = new SparseFile(fs, remote, status.getLen(), new File(dir, name));
+
+        Path remoteOverview = new Path(remote.getParent(), remote.getName() + ".ovr");
+        this.overview = fs.exists(remoteOverview) ? new SparseFile(fs, remoteOverview,
+                fs.getFileStatus(remoteOverview).getLen(), new File(dir, name + OVERVIEW_SUFFIX)) : null;
+
+        List<Level> parsed = parseTiff(main);
+        if (parsed != null && overview != null) {
+            List<Level> external = parseTiff(overview);
+            parsed = external == null ? null : concat(parsed, external);
+        }
+        this.levels = parsed;
+        if (levels == null) {
+            log.info(remote + "不是TIFF格式，读取时将整个下载.");
+        }
+    }
+
+    public String getLocalPath() {
+        return main.local.getPath();
+    }
+
+    /**
+     * @return 已从HDFS下载的字节数
+     */
+    public long getBytesFetched() {
+        return main.fetched + (overview == null ? 0 : overview.fetched);
+    }
+
+    /**
+     * 下载全部数据
+     */
+    public synchronized boolean fetchAll() {
+        try {
+            main.ensure(singleRange(0, main.length), FETCH_THREADS);
+            if (overview != null) {
+                overview.ensure(singleRange(0, overview.length), FETCH_THREADS);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("下载" + main.remote + "失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 下载OverviewReader.selectOverview对该目标大小会选择的影像层；非TIFF格式下载全部数据
+     * @param minCols 目标宽度
+     * @param minRows 目标高度
+     */
+    public synchronized boolean fetchOverview(int minCols, int minRows) {
+        if (levels == null) {
+            return fetchAll();
+        }
+        //与GDAL一致，金字塔层只包括原始分辨率之后的非掩膜层
+        List<Level> candidates = new ArrayList<Level>();
+        for (Level level : levels) {
+            if (!level.mask) {
+                candidates.add(level);
+            }
+        }
+        long[] widths = new long[candidates.size()];
+        long[] heights = new long[candidates.size()];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = candidates.get(i).width;
+            heights[i] = candidates.get(i).height;
+        }
+        Level best = candidates.get(OverviewReader.selectLevel(widths, heights, minCols, minRows));
+        return fetchLevel(best.width, best.height);
+    }
+
+    /**
+     * 下载指定大小的影像层及同样大小的掩膜层，一般传入GDAL实际要读取的波段(金字塔)大小。
+     * 没有该大小的层或不是TIFF格式时下载全部数据，避免GDAL读到未下载的部分
+     * @param width 影像层宽度
+     * @param height 影像层高度
+     */
+    public synchronized boolean fetchLevel(long width, long height) {
+        if (levels == null) {
+            return fetchAll();
+        }
+        try {
+            boolean found = false;
+            for (Level level : levels) {
+                if (level.width == width && level.height == height) {
+                    found = true;
+                    List<long[]> ranges = new ArrayList<long[]>(level.offsets.length);
+                    for (int i = 0; i < level.offsets.length; i++) {
+                        if (level.counts[i] > 0) {
+                            ranges.add(new long[]{level.offsets[i], level.counts[i]});
+                        }
+                    }
+                    level.file.ensure(ranges, FETCH_THREADS);
+                }
+            }
+            if (!found) {
+                log.warn(main.remote + "中没有" + width + "x" + height + "的影像层，整个下载.");
+                return fetchAll();
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("下载" + main.remote + "失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 已下载的数据超过上限时扫描缓存目录，按最近使用时间删除未在使用的缓存；未超过时不访问磁盘
+     */
+    private static void evict() {
+        List<HDFSRasterCache> lru;
+        synchronized (caches) {
+            if (evicting || (totalBytes >= 0 && (totalBytes <= maxCacheBytes || totalBytes <= unevictableBytes))) {
+                return;
+            }
+            evicting = true;
+            lru = new ArrayList<HDFSRasterCache>(caches.values());
+        }
+        try {
+            long total = scan(lru);
+            synchronized (caches) {
+                totalBytes = total;
+                unevictableBytes = total > maxCacheBytes ? total : -1;
+            }
+        } finally {
+            synchronized (caches) {
+                evicting = false;
+            }
+        }
+    }
+
+    /**
+     * 统计缓存目录中已下载的数据，超过上限时删除
+     * @param lru 本进程中打开的缓存，按最近使用排列
+     * @return 删除后剩余的数据量
+     */
+    private static long scan(List<HDFSRasterCache> lru) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        //同一影像的本地文件、页记录和.ovr归为一组，组名为本地文件名
+        Map<String, List<File>> groups = new HashMap<String, List<File>>();
+        Set<String> writing = new HashSet<String>();
+        for (File file : files) {
+            String base = file.getName();
+            if (base.endsWith(TMP_SUFFIX)) {
+                base = base.substring(0, base.length() - TMP_SUFFIX.length());
+            }
+            if (base.endsWith(PAGES_SUFFIX)) {
+                base = base.substring(0, base.length() - PAGES_SUFFIX.length());
+            }
+            if (base.endsWith(OVERVIEW_SUFFIX)) {
+                base = base.substring(0, base.length() - OVERVIEW_SUFFIX.length());
+            }
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                writing.add(base);
+            }
+            List<File> group = groups.get(base);
+            if (group == null) {
+                group = new ArrayList<File>();
+                groups.put(base, group);
+            }
+            group.add(file);
+        }
+
+        Map<String, HDFSRasterCache> open = new HashMap<String, HDFSRasterCache>();
+        for (HDFSRasterCache cache : lru) {
+            open.put(cache.main.local.getName(), cache);
+        }
+        long total = 0;
+        final Map<String, Long> lastUsed = new HashMap<String, Long>();
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        for (Map.Entry<String, List<File>> group : groups.entrySet()) {
+            HDFSRasterCache cache = open.get(group.getKey());
+            long size = 0;
+            long used = 0;
+            if (cache != null) {
+                size = cache.getCachedBytes();
+            } else {
+                for (File file : group.getValue()) {
+                    if (file.getName().endsWith(PAGES_SUFFIX)) {
+                        BitSet pages = SparseFile.loadPages(file);
+                        size += pages == null ? file.length() : (long) pages.cardinality() * PAGE_SIZE;
+                    }
+                }
+            }
+            for (File file : group.getValue()) {
+                used = Math.max(used, file.lastModified());
+            }
+            total += size;
+            sizes.put(group.getKey(), size);
+            lastUsed.put(group.getKey(), used);
+        }
+        if (total <= maxCacheBytes) {
+            return total;
+        }
+
+        //未打开的(之前进程或其他进程的)按修改时间，已打开的按访问顺序排在其后；
+        //未打开的若正在写入或最近修改过，可能正被其他进程使用，跳过
+        long recent = System.currentTimeMillis() - RECENT_MILLIS;
+        List<String> order = new ArrayList<String>();
+        for (String base : groups.keySet()) {
+            if (!open.containsKey(base) && !writing.contains(base) && lastUsed.get(base) < recent) {
+                order.add(base);
+            }
+        }
+        Collections.sort(order, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(lastUsed.get(a), lastUsed.get(b));
+            }
+        });
+        for (HDFSRasterCache cache : lru) {
+            if (groups.containsKey(cache.main.local.getName())) {
+                order.add(cache.main.local.getName());
+            }
+        }
+
+        for (String base : order) {
+            if (total <= maxCacheBytes) {
+                break;
+            }
+            HDFSRasterCache cache = open.get(base);
+            synchronized (caches) {
+                if (cache != null) {
+                    //扫描期间可能被再次打开
+                    if (cache.users > 0 || caches.get(cache.key) != cache) {
+                        continue;
+                    }
+                    caches.remove(cache.key);
+                }
+                for (File file : groups.get(base)) {
+                    if (!file.delete() && file.exists()) {
+                        log.warn("无法删除缓存文件: " + file);
+                    }
+                }
+            }
+            total -= sizes.get(base);
+            log.info("清除HDFS影像缓存: " + base);
+        }
+        return total;
+    }
+
+    /**
+     * 记录新下载的数据量
+     */
+    private static void added(long bytes) {
+        synchronized (caches) {
+            if (totalBytes >= 0) {
+                totalBytes += bytes;
+            }
+        }
+    }
+
+    /**
+     * @return 本地已下载的字节数(按页计)
+     */
+    private long getCachedBytes() {
+        return main.getCachedBytes() + (overview == null ? 0 : overview.getCachedBytes());
+    }
+
+    /**
+     * 解析TIFF/BigTIFF的全部IFD，下载各IFD及其引用的标签数据
+     * @return 各影像层，不是TIFF时返回null
+     */
+    private static List<Level> parseTiff(SparseFile file) throws IOException {
+        if (file.length < 16) {
+            return null;
+        }
+        ByteBuffer header = file.read(0, 16);
+        ByteOrder order;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        header.order(order);
+        int version = header.getShort(2) & 0xFFFF;
+        boolean big;
+        long next;
+        if (version == 42) {
+            big = false;
+            next = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (version == 43) {
+            big = true;
+            next = header.getLong(8);
+        } else {
+            return null;
+        }
+
+        List<Level> levels = new ArrayList<Level>();
+        Set<Long> visited = new HashSet<Long>();
+        while (next != 0 && next < file.length && visited.add(next) && visited.size() <= MAX_IFDS) {
+            long entryCount = big ? file.read(next, 8).order(order).getLong(0)
+                    : file.read(next, 2).order(order).getShort(0) & 0xFFFF;
+            int entrySize = big ? 20 : 12;
+            int countSize = big ? 8 : 2;
+            int offsetSize = big ? 8 : 4;
+            ByteBuffer ifd = file.read(next + countSize, (int) (entryCount * entrySize + offsetSize)).order(order);
+
+            long width = 0, height = 0, subfileType = 0;
+            long[] offsets = null, counts = null;
+            for (int i = 0; i < entryCount; i++) {
+                int base = i * entrySize;
+                int tag = ifd.getShort(base) & 0xFFFF;
+                int type = ifd.getShort(base + 2) & 0xFFFF;
+                long count = big ? ifd.getLong(base + 4) : ifd.getInt(base + 4) & 0xFFFFFFFFL;
+                int valueBase = base + (big ? 12 : 8);
+                long size = count * typeSize(type);
+
+                ByteBuffer values;
+                if (size <= offsetSize) {
+                    values = ifd.duplicate().order(order);
+                    values.position(valueBase);
+                    values = values.slice().order(order);
+                } else {
+                    long offset = big ? ifd.getLong(valueBase) : ifd.getInt(valueBase) & 0xFFFFFFFFL;
+                    //标签数据不在IFD内时单独下载，GDAL打开时会读取
+                    values = offset + size <= file.length && size <= Integer.MAX_VALUE
+                            ? file.read(offset, (int) size).order(order) : null;
+                }
+                if (values == null) {
+                    continue;
+                }
+                switch (tag) {
+                    case 254:
+                        subfileType = readValues(values, type, 1)[0];
+                        break;
+                    case 256:
+                        width = readValues(values, type, 1)[0];
+                        break;
+                    case 257:
+                        height = readValues(values, type, 1)[0];
+                        break;
+                    case 273:
+                    case 324:
+                        offsets = readValues(values, type, count);
+                        break;
+                    case 279:
+                    case 325:
+                        counts = readValues(values, type, count);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (offsets != null && counts != null && offsets.length == counts.length) {
+                levels.add(new Level(file, width, height, (subfileType & 4) != 0, offsets, counts));
+            }
+            next = big ? ifd.getLong((int) (entryCount * entrySize)) : ifd.getInt((int) (entryCount * entrySize)) & 0xFFFFFFFFL;
+        }
+        return levels.isEmpty() ? null : levels;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case 3:
+            case 8:
+                return 2;
+            case 4:
+            case 9:
+            case 11:
+            case 13:
+                return 4;
+            case 5:
+            case 10:
+            case 12:
+            case 16:
+            case 17:
+            case 18:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    private static long[] readValues(ByteBuffer buffer, int type, long count) {
+        long[] values = new long[(int) count];
+        for (int i = 0; i < values.length; i++) {
+            switch (type) {
+                case 3:
+                case 8:
+                    values[i] = buffer.getShort(i * 2) & 0xFFFF;
+                    break;
+                case 16:
+                case 17:
+                case 18:
+                    values[i] = buffer.getLong(i * 8);
+                    break;
+                case 1:
+                case 6:
+                    values[i] = buffer.get(i) & 0xFF;
+                    break;
+                default:
+                    values[i] = buffer.getInt(i * 4) & 0xFFFFFFFFL;
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private static List<long[]> singleRange(long offset, long length) {
+        List<long[]> ranges = new ArrayList<long[]>(1);
+        ranges.add(new long[]{offset, length});
+        return ranges;
+    }
+
+    private static List<Level> concat(List<Level> a, List<Level> b) {
+        List<Level> result = new ArrayList<Level>(a);
+        result.addAll(b);
+        return result;
+    }
+
+    /**
+     * TIFF中的一个影像层(IFD)
+     */
+    private static class Level {
+        final SparseFile file;
+        final long width;
+        final long height;
+        final boolean mask;
+        final long[] offsets;
+        final long[] counts;
+
+        Level(SparseFile file, long width, long height, boolean mask, long[] offsets, long[] counts) {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.mask = mask;
+            this.offsets = offsets;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * 与远程文件等长的本地稀疏文件，已下载的页记录在.pages文件中，进程重启后仍然有效
+     */
+    private static class SparseFile {
+        final FileSystem fs;
+        final Path remote;
+        final long length;
+        final File local;
+        final File pagesFile;
+        final BitSet pages;
+        long fetched = 0;
+        //已下载的字节数(按页计)，清除时读取，不等待正在进行的下载
+        volatile long cachedBytes;
+
+        SparseFile(FileSystem fs, Path remote, long length, File local) throws IOException {
+            this.fs = fs;
+            this.remote = remote;
+            this.length = length;
+            this.local = local;
+            this.pagesFile = new File(local.getPath() + PAGES_SUFFIX);
+            BitSet loaded = local.length() == length ? loadPages(pagesFile) : null;
+            if (loaded == null) {
+                RandomAccessFile raf = new RandomAccessFile(local, "rw");
+                try {
+                    raf.setLength(0);
+                    raf.setLength(length);
+                } finally {
+                    raf.close();
+                }
+                loaded = new BitSet();
+            }
+            this.pages = loaded;
+            this.cachedBytes = (long) loaded.cardinality() * PAGE_SIZE;
+            //修改时间作为最近使用时间
+            local.setLastModified(System.currentTimeMillis());
+        }
+
+        long getCachedBytes() {
+            return cachedBytes;
+        }
+
+        /**
+         * 确保范围已下载后读取
+         */
+        ByteBuffer read(long offset, int size) throws IOException {
+            ensure(singleRange(offset, size), 1);
+            byte[] data = new byte[size];
+            RandomAccessFile raf = new RandomAccessFile(local, "r");
+            try {
+                raf.seek(offset);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            return ByteBuffer.wrap(data);
+        }
+
+        /**
+         * 下载范围内尚未下载的页，相近的页合并后分给多个线程读取
+         */
+        synchronized void ensure(List<long[]> ranges, int threads) throws IOException {
+            BitSet needed = new BitSet();
+            long lastPage = (length - 1) / PAGE_SIZE;
+            for (long[] range : ranges) {
+                if (range[1] <= 0) {
+                    continue;
+                }
+                long first = range[0] / PAGE_SIZE;
+                long last = Math.min(lastPage, (range[0] + range[1] - 1) / PAGE_SIZE);
+                if (first <= last) {
+                    needed.set((int) first, (int) last + 1);
+                }
+            }
+            needed.andNot(pages);
+            if (needed.isEmpty()) {
+                return;
+            }
+
+            final List<long[]> runs = new ArrayList<long[]>();
+            int start = needed.nextSetBit(0);
+            while (start >= 0) {
+                int end = needed.nextClearBit(start);
+                int following = needed.nextSetBit(end);
+                while (following >= 0 && following - end <= MERGE_GAP_PAGES) {
+                    end = needed.nextClearBit(following);
+                    following = needed.nextSetBit(end);
+                }
+                long offset = (long) start * PAGE_SIZE;
+                runs.add(new long[]{offset, Math.min((long) end * PAGE_SIZE, length) - offset});
+                start = following;
+            }
+
+            int workers = Math.min(threads, runs.size());
+            if (workers <= 1) {
+                fetched += fetchRuns(runs, 0, 1);
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                try {
+                    List<Future<Long>> futures = new ArrayList<Future<Long>>(workers);
+                    for (int w = 0; w < workers; w++) {
+                        final int first = w;
+                        final int step = workers;
+                        futures.add(pool.submit(new Callable<Long>() {
+                            @Override
+                            public Long call() throws IOException {
+                                return fetchRuns(runs, first, step);
+                            }
+                        }));
+                    }
+                    for (Future<Long> future : futures) {
+                        fetched += future.get();
+                    }
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("下载被中断.");
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            for (long[] run : runs) {
+                pages.set((int) (run[0] / PAGE_SIZE), (int) ((run[0] + run[1] - 1) / PAGE_SIZE) + 1);
+            }
+            savePages();
+            long bytes = (long) pages.cardinality() * PAGE_SIZE;
+            added(bytes - cachedBytes);
+            cachedBytes = bytes;
+        }
+
+        /**
+         * 用定位读取下载runs中下标为first, first+step, ...的各段并写入本地文件
+         */
+        private long fetchRuns(List<long[]> runs, int first, int step) throws IOException {
+            FSDataInputStream in = fs.open(remote, READ_BUFFER_SIZE);
+            RandomAccessFile raf = new RandomAccessFile(local, "rw");
+            long bytes = 0;
+            try {
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                for (int r = first; r < runs.size(); r += step) {
+                    long[] run = runs.get(r);
+                    for (long done = 0; done < run[1]; ) {
+                        int n = (int) Math.min(buffer.length, run[1] - done);
+                        in.readFully(run[0] + done, buffer, 0, n);
+                        raf.seek(run[0] + done);
+                        raf.write(buffer, 0, n);
+                        done += n;
+                    }
+                    bytes += run[1];
+                }
+            } finally {
+                IOUtils.closeStream(in);
+                raf.close();
+            }
+            return bytes;
+        }
+
+        private void savePages() throws IOException {
+            File tmp = new File(pagesFile.getPath() + TMP_SUFFIX);
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+            try {
+                long[] words = pages.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(pagesFile)) {
+                pagesFile.delete();
+                if (!tmp.renameTo(pagesFile)) {
+                    throw new IOException("无法保存" + pagesFile);
+                }
+            }
+        }
+
+        private static BitSet loadPages(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(file));
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                return BitSet.valueOf(words);
+            } catch (IOException e) {
+                log.warn("读取" + file + "失败: " + e.getMessage());
+                return null;
+            } finally {
+                IOUtils.closeStream(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * @创建人 kay
+ * @创建时间 2026-10-17
+ * @描述 瓦片坐标系的公共接口，由GlobalGeodetic和GlobalMercator实现
+ */
+
+package ai.geodata.util;
+
+/**
+ * 坐标均为该坐标系(getEPSG)下的投影坐标
+ */
+public interface TileProfile {
+    /**
+     * @return 瓦片所在坐标系的EPSG代码
+     */
+    int getEPSG();
+
+    /**
+     * 坐标所在的瓦片(TMS，行号自南向北)
+     */
+    int[] coordsToTile(double x, double y, int zoom);
+
+    /**
+     * 瓦片的范围 {minx, miny, maxx, maxy}
+     */
+    double[] tileBounds(int tx, int ty, int zoom);
+
+    /**
+     * 该级别瓦片的最大列号和行号 {maxTx, maxTy}
+     */
+    int[] maxTile(int zoom);
+
+    /**
+     * 该级别每个像元对应的坐标长度
+     */
+    double resolution(int zoom);
+
+    /**
+     * 与像元大小最接近且不损失精度的缩放级别
+     */
+    int zoomForPixelSize(double pixelSize);
+}